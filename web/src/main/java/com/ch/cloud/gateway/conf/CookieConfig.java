@@ -56,4 +56,34 @@ public class CookieConfig {
      * 是否启用Cookie刷新日志
      */
     private boolean enableLog = true;
+
+    /**
+     * Token后台续期间隔（毫秒），请求只登记待续期的token，由后台按此间隔批量续期
+     */
+    private long renewInterval = 1000;
+
+    /**
+     * 每批最多续期的token数
+     */
+    private int renewBatchSize = 200;
+
+    /**
+     * 每批调用单点登录系统续期的并发数
+     */
+    private int renewConcurrency = 8;
+
+    /**
+     * 待续期token的最大数量，达到上限时暂不登记，由后续请求重试
+     */
+    private int renewMaxPending = 10000;
+
+    /**
+     * 用refresh token换取的新token的共享时间（秒），期间同一个refresh token的请求（包括其它网关节点）直接使用该结果
+     */
+    private long refreshResultTtl = 30;
+
+    /**
+     * 其它网关节点正在换取token时的最长等待时间（毫秒），超时后自行换取
+     */
+    private long refreshWait = 3000;
 }
@@ -2,13 +2,25 @@ package com.ch.cloud.gateway.conf;
 
 
 import com.ch.Constants;
+import com.ch.cloud.gateway.filter.ratelimit.LeasedRateLimiter;
+import com.ch.cloud.gateway.handler.IndexedRoutePredicateHandlerMapping;
 import com.ch.utils.CommonUtils;
+import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
 import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.cloud.gateway.support.ConfigurationService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import reactor.core.publisher.Mono;
@@ -35,6 +47,28 @@ public class GatewayConfig {
         };
     }
 
+    /**
+     * 租借令牌限流器，启用后作为 RequestRateLimiter 的默认限流器替代每个请求执行一次Lua脚本的 RedisRateLimiter
+     */
+    @Bean
+    @Primary
+    @ConditionalOnProperty(prefix = "gateway.rate-limiter", name = "enabled", havingValue = "true")
+    public LeasedRateLimiter leasedRateLimiter(RedissonClient redissonClient, RateLimiterConfig rateLimiterConfig,
+            ConfigurationService configurationService) {
+        return new LeasedRateLimiter(redissonClient, rateLimiterConfig, configurationService);
+    }
+
+    /**
+     * 路由数量多时启用路由索引，按Path前缀缩小候选路由后再执行断言
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.route-index", name = "enabled", havingValue = "true")
+    public RoutePredicateHandlerMapping routePredicateHandlerMapping(FilteringWebHandler webHandler,
+            RouteLocator routeLocator, RouteDefinitionLocator routeDefinitionLocator,
+            GlobalCorsProperties globalCorsProperties, Environment environment) {
+        return new IndexedRoutePredicateHandlerMapping(webHandler, routeLocator, routeDefinitionLocator,
+                globalCorsProperties, environment);
+    }
 
     private static String getIP(ServerHttpRequest request) {
         if (request == null) return "N/A";
@@ -0,0 +1,60 @@
+package com.ch.cloud.gateway.conf;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 签名Token（JWT）本地校验配置类
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Configuration
+@ConfigurationProperties(prefix = "gateway.jwt")
+@Data
+public class JwtConfig {
+
+    /**
+     * 是否启用本地校验，启用后JWT格式的token在网关本地验签，不再访问Redis和单点登录系统
+     */
+    private boolean enabled = false;
+
+    /**
+     * 单点登录系统签名公钥，key为kid，value为X.509编码的公钥（PEM或Base64），支持RSA和EC
+     */
+    private Map<String, String> publicKeys = new LinkedHashMap<>();
+
+    /**
+     * 允许的时钟偏差（秒）
+     */
+    private long clockSkew = 30;
+
+    /**
+     * 用户名claim
+     */
+    private String usernameClaim = "sub";
+
+    /**
+     * 用户ID claim
+     */
+    private String userIdClaim = "userId";
+
+    /**
+     * 角色ID claim
+     */
+    private String roleIdClaim = "roleId";
+
+    /**
+     * 租户ID claim
+     */
+    private String tenantIdClaim = "tenantId";
+
+    /**
+     * 吊销记录保留时间（秒），不小于token最大有效期
+     */
+    private long revokedTtl = 86400;
+}
@@ -0,0 +1,93 @@
+package com.ch.cloud.gateway.conf;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 权限缓存配置类
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Configuration
+@ConfigurationProperties(prefix = "gateway.permission-cache")
+@Data
+public class PermissionCacheConfig {
+
+    /**
+     * 是否启用本地（一级）缓存
+     */
+    private boolean localEnabled = true;
+
+    /**
+     * 本地缓存最大条目数（角色数 + 公共权限列表数）
+     */
+    private long localMaxSize = 2000;
+
+    /**
+     * 本地缓存过期时间（秒），用于兜底广播消息丢失的情况
+     */
+    private long localTtl = 300;
+
+    /**
+     * 本地缓存提前刷新比例，缓存存活时间超过 localTtl * refreshAheadRatio 时后台刷新
+     */
+    private double refreshAheadRatio = 0.8;
+
+    /**
+     * 后台刷新的重试间隔（秒），刷新失败后在此时间内不再刷新同一个key
+     */
+    private long refreshRetryInterval = 30;
+
+    /**
+     * 本地缓存最大容忍时间（秒），超过localTtl后在此时间内继续返回旧值并后台刷新，
+     * 用户权限中心不可用时权限最多陈旧这么久
+     */
+    private long maxStale = 3600;
+
+    /**
+     * 请求分类结果按 (method, path) 记忆的最大数量，0表示不记忆；公共权限列表重新加载后清空
+     */
+    private long classifyMemoSize = 10000;
+
+    /**
+     * Redis（二级）缓存过期时间（秒）
+     */
+    private long redisTtl = 1800; // 30分钟
+
+    /**
+     * 是否启用集群加载锁，缓存未命中时整个集群只有一个节点调用用户权限中心
+     */
+    private boolean clusterLock = false;
+
+    /**
+     * 集群加载锁等待时间（毫秒）
+     */
+    private long clusterLockWait = 3000;
+
+    /**
+     * 集群加载锁持有时间（毫秒），超时自动释放
+     */
+    private long clusterLockLease = 10000;
+
+    /**
+     * 临时授权码本地缓存最大数量
+     */
+    private long authCodeMaxSize = 10000;
+
+    /**
+     * 临时授权码本地缓存时间（秒），授权码在用户权限中心修改后最多这么久生效
+     */
+    private long authCodeTtl = 60;
+
+    /**
+     * 不存在的临时授权码本地缓存时间（秒），查询失败不缓存
+     */
+    private long authCodeMissingTtl = 5;
+
+    /**
+     * 没有过期时间的授权码，Redis中使用次数计数的保留时间（秒）
+     */
+    private long authCodeUsageTtl = 2592000; // 30天
+}
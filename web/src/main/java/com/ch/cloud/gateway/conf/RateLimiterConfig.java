@@ -0,0 +1,58 @@
+package com.ch.cloud.gateway.conf;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+/**
+ * 限流配置类
+ * <p>
+ * 令牌桶保存在Redis，各网关节点每次从Redis租借一批令牌在本地扣减，用完或租期到期后再向Redis租借。
+ * 不会超发；精度损失为各节点未用完就过期的令牌，由 leaseSize、leaseTtl 控制。
+ * 默认不启用，启用后作为 RequestRateLimiter 的默认限流器替代 RedisRateLimiter。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Configuration
+@ConfigurationProperties(prefix = "gateway.rate-limiter")
+@Data
+@Validated
+public class RateLimiterConfig {
+
+    /**
+     * 是否启用租借令牌限流（作为 RequestRateLimiter 的默认限流器）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 默认每秒补充的令牌数，路由未配置时使用
+     */
+    @Min(1)
+    private int replenishRate = 100;
+
+    /**
+     * 默认令牌桶容量，路由未配置时使用
+     */
+    @Min(1)
+    private int burstCapacity = 200;
+
+    /**
+     * 每次从Redis租借的最大令牌数，每个key从1个开始按本地消耗加倍；越大访问Redis越少，单节点可能占用的令牌越多
+     */
+    @Min(1)
+    private int leaseSize = 20;
+
+    /**
+     * 租期（毫秒），到期后未用完的令牌作废，越短各节点间越公平
+     */
+    private long leaseTtl = 1000;
+
+    /**
+     * 本地保存租约的最大key数（路由 + 客户端）
+     */
+    private long maxKeys = 100000;
+}
@@ -4,6 +4,7 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -66,6 +67,11 @@ public class RequestRecorderConfig {
      */
     private int maxRequestBodySize = 1024 * 1024; // 1MB
     
+    /**
+     * 内存中缓存请求体的上限（字节），超过部分写入临时文件，日志中只记录内存中的部分
+     */
+    private int bodySpillThreshold = 1024 * 1024; // 1MB
+    
     /**
      * 响应体最大大小（字节）
      */
@@ -82,4 +88,144 @@ public class RequestRecorderConfig {
     private List<String> sensitiveFields = Arrays.asList(
             "password", "token", "authorization", "secret"
     );
+    
+    /**
+     * 日志发送环形队列容量（取2的幂）
+     */
+    private int bufferSize = 8192;
+    
+    /**
+     * 每批发送的最大消息数
+     */
+    private int batchSize = 64;
+    
+    /**
+     * 每批发送的最大字节数，需小于RocketMQ消息大小上限（默认4MB）
+     */
+    private int batchMaxBytes = 1024 * 1024;
+    
+    /**
+     * 队列为空时发送线程的等待时间（毫秒）
+     */
+    private long flushInterval = 200;
+    
+    /**
+     * 队列满时的处理策略
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    
+    /**
+     * 采样策略：队列使用率超过该比例后开始采样
+     */
+    private double sampleWatermark = 0.8;
+    
+    /**
+     * 采样策略：每N条保留1条
+     */
+    private int sampleRate = 10;
+    
+    /**
+     * 是否启用本地落盘：MQ发送失败、落盘策略下队列满时落盘，MQ恢复后重新发送；未启用MQ时日志直接落盘
+     */
+    private boolean spillEnabled = true;
+    
+    /**
+     * 落盘目录
+     */
+    private String spillDir = System.getProperty("java.io.tmpdir") + "/ch-gateway/request-logs";
+    
+    /**
+     * 落盘段文件大小（字节），写满后切换新段
+     */
+    private int spillSegmentSize = 64 * 1024 * 1024;
+    
+    /**
+     * 落盘文件总大小上限（字节），超过后暂停落盘（未启用MQ时删除最早的段）
+     */
+    private long spillMaxBytes = 512L * 1024 * 1024;
+    
+    /**
+     * 默认采样比例（0~1），未匹配记录策略的请求按此比例记录
+     */
+    private double defaultSampleRate = 1.0;
+    
+    /**
+     * 默认每个路由每秒最多记录的请求数（令牌桶），0表示不限制
+     */
+    private int defaultMaxPerSecond = 0;
+    
+    /**
+     * 未被采样的请求出错（响应状态码不小于 errorStatus 或异常）时，仍记录请求摘要
+     */
+    private boolean alwaysRecordErrors = true;
+    
+    /**
+     * 视为出错的最小响应状态码
+     */
+    private int errorStatus = 500;
+    
+    /**
+     * 慢请求阈值（毫秒），未被采样的请求超过该耗时仍记录请求摘要，0表示不启用
+     */
+    private long slowThreshold = 0;
+    
+    /**
+     * 未被采样的请求保留的请求体、响应体前缀大小（字节），记录出错或慢请求摘要时一并输出，0表示不保留
+     */
+    private int tailBodySize = 4096;
+    
+    /**
+     * 记录策略，按顺序匹配第一个
+     */
+    private List<RecordPolicy> policies = new ArrayList<>();
+    
+    /**
+     * 记录策略：按路由、路径、请求方法匹配，决定采样比例和限流
+     */
+    @Data
+    public static class RecordPolicy {
+        
+        /**
+         * 路由ID，为空时匹配所有路由
+         */
+        private String routeId;
+        
+        /**
+         * 路径（Ant风格），为空时匹配所有路径
+         */
+        private List<String> paths = new ArrayList<>();
+        
+        /**
+         * 请求方法，为空时匹配所有方法
+         */
+        private List<String> methods = new ArrayList<>();
+        
+        /**
+         * 采样比例（0~1）
+         */
+        private double sampleRate = 1.0;
+        
+        /**
+         * 每个路由每秒最多记录的请求数（令牌桶），0表示不限制
+         */
+        private int maxPerSecond = 0;
+    }
+    
+    /**
+     * 日志队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 丢弃最早的日志
+         */
+        DROP_OLDEST,
+        /**
+         * 队列使用率超过水位后按比例采样，队列满时丢弃新日志
+         */
+        SAMPLE,
+        /**
+         * 写入本地磁盘，MQ恢复后重新发送
+         */
+        SPILL
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.ch.cloud.gateway.decorator;
+
+import com.ch.cloud.gateway.utils.RequestLogWriter;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+/**
+ * 请求体/响应体前缀记录：数据经过时只复制前 maxBodySize 字节，不缓存整个请求体
+ * <p>
+ * 复制的数据使用原数据的 bufferFactory 分配（池化），日志记录完成后必须调用 {@link #release()}。
+ *
+ * @author zhimin
+ */
+final class BodyCapture {
+
+    private final int maxBodySize;
+
+    private DataBuffer captured;
+
+    private long bodySize;
+
+    private boolean released;
+
+    BodyCapture(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 在数据被消费之前复制未超过上限的部分（消费后数据会被释放）
+     */
+    synchronized void capture(DataBuffer buffer) {
+        int readable = buffer.readableByteCount();
+        bodySize += readable;
+        if (released) {
+            return;
+        }
+        int length = Math.min(readable, maxBodySize - (captured == null ? 0 : captured.readableByteCount()));
+        if (length <= 0) {
+            return;
+        }
+        if (captured == null) {
+            captured = buffer.factory().allocateBuffer(Math.min(maxBodySize, Math.max(length, 1024)));
+        }
+        captured.write(buffer.asByteBuffer(buffer.readPosition(), length));
+    }
+
+    synchronized void writeTo(RequestLogWriter writer) {
+        if (captured != null) {
+            writer.body(captured.asByteBuffer());
+        }
+    }
+
+    synchronized boolean isTruncated() {
+        return bodySize > (captured == null ? 0 : captured.readableByteCount());
+    }
+
+    synchronized void release() {
+        released = true;
+        if (captured != null) {
+            DataBufferUtils.release(captured);
+            captured = null;
+        }
+    }
+}
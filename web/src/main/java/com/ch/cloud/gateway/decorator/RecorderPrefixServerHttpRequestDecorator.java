@@ -0,0 +1,57 @@
+package com.ch.cloud.gateway.decorator;
+
+import com.ch.cloud.gateway.utils.GatewayLogUtil;
+import com.ch.cloud.gateway.utils.RequestLogWriter;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import reactor.core.publisher.Flux;
+
+/**
+ * 记录请求体前缀：请求体照常转发，同时只复制前 maxBodySize 字节用于日志，不缓存整个请求体
+ * <p>
+ * 用于尾部决策记录，请求完成后才决定是否输出；日志记录完成后必须调用 {@link #release()}。
+ *
+ * @author zhimin
+ */
+public class RecorderPrefixServerHttpRequestDecorator extends ServerHttpRequestDecorator {
+
+    private final int maxBodySize;
+
+    private final BodyCapture capture;
+
+    public RecorderPrefixServerHttpRequestDecorator(ServerHttpRequest delegate, int maxBodySize) {
+        super(delegate);
+        this.maxBodySize = maxBodySize;
+        this.capture = new BodyCapture(maxBodySize);
+    }
+
+    @Override
+    public Flux<DataBuffer> getBody() {
+        if (maxBodySize <= 0 || !GatewayLogUtil.shouldRecordBody(getHeaders().getContentType())) {
+            return super.getBody();
+        }
+        return super.getBody().doOnNext(capture::capture);
+    }
+
+    /**
+     * 将已记录的请求体（最多 maxBodySize 字节）写入日志
+     */
+    public void writeCapturedBody(RequestLogWriter writer) {
+        capture.writeTo(writer);
+    }
+
+    /**
+     * 请求体是否超过上限被截断
+     */
+    public boolean isBodyTruncated() {
+        return capture.isTruncated();
+    }
+
+    /**
+     * 释放已记录的请求体
+     */
+    public void release() {
+        capture.release();
+    }
+}
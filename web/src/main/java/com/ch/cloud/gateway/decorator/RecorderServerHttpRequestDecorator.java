@@ -1,55 +1,66 @@
 package com.ch.cloud.gateway.decorator;
 
+import com.ch.cloud.gateway.utils.RequestLogWriter;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
- * 解决response的body只能读一次的问题
+ * 解决request的body只能读一次的问题
+ * <p>
+ * 请求体只读取一次并缓存（见 {@link ReplayableBody}），之后每次 getBody() 都重放缓存，不复制数据；
+ * 请求完成后必须调用 {@link #release()}。
  *
  * @author zhimin
  */
 public class RecorderServerHttpRequestDecorator extends ServerHttpRequestDecorator {
-    private final List<DataBuffer> dataBuffers = new LinkedList<>();
-    private boolean bufferCached = false;
-    private Mono<Void> progress = null;
 
-    public RecorderServerHttpRequestDecorator(ServerHttpRequest delegate) {
+    private final ReplayableBody body;
+
+    private final Mono<Void> cached;
+
+    /**
+     * @param memoryThreshold 内存中缓存请求体的上限（字节），超过部分写入临时文件
+     */
+    public RecorderServerHttpRequestDecorator(ServerHttpRequest delegate, int memoryThreshold) {
         super(delegate);
+        this.body = new ReplayableBody(memoryThreshold);
+        this.cached = Flux.defer(() -> getDelegate().getBody()).concatMap(body::append)
+                .then(Mono.fromRunnable(body::complete)).cache();
     }
 
     @Override
     public Flux<DataBuffer> getBody() {
-        synchronized (dataBuffers) {
-            if (bufferCached)
-                return copy();
-
-            if (progress == null) {
-                progress = cache();
-            }
+        return cached.thenMany(Flux.defer(body::replay));
+    }
 
-            return progress.thenMany(Flux.defer(this::copy));
-        }
+    /**
+     * 读入并缓存请求体，只会读取一次
+     */
+    public Mono<Void> cacheBody() {
+        return cached;
     }
 
-    private Flux<DataBuffer> copy() {
-        return Flux.fromIterable(dataBuffers)
-                .map(buf -> buf.factory().wrap(buf.asByteBuffer()));
+    /**
+     * 将缓存在内存中的请求体写入日志，需在 {@link #cacheBody()} 完成后调用
+     */
+    public void writeCapturedBody(RequestLogWriter writer) {
+        body.writeTo(writer);
     }
 
-    private Mono<Void> cache() {
-        return super.getBody()
-                .map(dataBuffers::add)
-                .then(Mono.defer(() -> {
-                    bufferCached = true;
-                    progress = null;
+    /**
+     * 请求体是否超过内存上限，日志中被截断
+     */
+    public boolean isBodyTruncated() {
+        return body.isSpilled();
+    }
 
-                    return Mono.empty();
-                }));
+    /**
+     * 释放缓存的请求体并删除临时文件
+     */
+    public void release() {
+        body.release();
     }
-}
\ No newline at end of file
+}
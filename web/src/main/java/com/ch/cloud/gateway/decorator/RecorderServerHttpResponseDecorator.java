@@ -1,8 +1,7 @@
 package com.ch.cloud.gateway.decorator;
 
-import com.ch.cloud.gateway.utils.DataBufferFixUtil;
-import com.ch.cloud.gateway.utils.DataBufferWrapper;
 import com.ch.cloud.gateway.utils.GatewayLogUtil;
+import com.ch.cloud.gateway.utils.RequestLogWriter;
 import org.reactivestreams.Publisher;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.server.reactive.ServerHttpResponse;
@@ -10,39 +9,63 @@ import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+/**
+ * 记录响应体：响应数据到达后直接写给客户端，同时只复制前 maxBodySize 字节用于日志，不缓存整个响应
+ * <p>
+ * 复制的数据使用响应的 bufferFactory 分配（池化），日志记录完成后必须调用 {@link #release()}。
+ *
+ * @author zhimin
+ */
 public class RecorderServerHttpResponseDecorator extends ServerHttpResponseDecorator {
 
-    private DataBufferWrapper data = null;
+    private final int maxBodySize;
 
-    public RecorderServerHttpResponseDecorator(ServerHttpResponse delegate) {
+    private final BodyCapture capture;
+
+    public RecorderServerHttpResponseDecorator(ServerHttpResponse delegate, int maxBodySize) {
         super(delegate);
+        this.maxBodySize = maxBodySize;
+        this.capture = new BodyCapture(maxBodySize);
     }
 
     @Override
     public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
-        if (!GatewayLogUtil.shouldRecordBody(super.getHeaders().getContentType())) {
+        if (!shouldCapture()) {
             return super.writeWith(body);
         }
-        return DataBufferFixUtil.join(Flux.from(body))
-                .doOnNext(d -> this.data = d)
-                .flatMap(d -> super.writeWith(copy()));
+        return super.writeWith(Flux.from(body).doOnNext(capture::capture));
     }
 
     @Override
     public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
-        if (!GatewayLogUtil.shouldRecordBody(super.getHeaders().getContentType())) {
+        if (!shouldCapture()) {
             return super.writeAndFlushWith(body);
         }
-        return writeWith(Flux.from(body)
-                .flatMapSequential(p -> p));
+        return super.writeAndFlushWith(Flux.from(body).map(p -> Flux.from(p).doOnNext(capture::capture)));
+    }
+
+    private boolean shouldCapture() {
+        return maxBodySize > 0 && GatewayLogUtil.shouldRecordBody(super.getHeaders().getContentType());
     }
 
-    public Flux<DataBuffer> copy() {
-        //如果data为null 就出错了 正好可以调试
-        DataBuffer buffer = this.data.newDataBuffer();
-        if (buffer == null)
-            return Flux.empty();
+    /**
+     * 将已记录的响应体（最多 maxBodySize 字节）写入日志
+     */
+    public void writeCapturedBody(RequestLogWriter writer) {
+        capture.writeTo(writer);
+    }
+
+    /**
+     * 响应体是否超过上限被截断
+     */
+    public boolean isBodyTruncated() {
+        return capture.isTruncated();
+    }
 
-        return Flux.just(buffer);
+    /**
+     * 释放已记录的响应体
+     */
+    public void release() {
+        capture.release();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,182 @@
+package com.ch.cloud.gateway.decorator;
+
+import com.ch.cloud.gateway.utils.RequestLogWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 可重复读取的请求体
+ * <p>
+ * 不超过 memoryThreshold 的部分直接持有原始（池化、引用计数）的数据块，不复制；超过后剩余部分写入临时文件。
+ * 每次重放时内存部分输出各数据块的 retainedSlice，由下游消费后释放，文件部分从临时文件读出。
+ * 请求完成后必须调用 {@link #release()} 释放数据块并删除临时文件。
+ *
+ * @author zhimin
+ */
+@Slf4j
+final class ReplayableBody {
+
+    private static final String SPILL_PREFIX = "ch-gateway-body-";
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final int memoryThreshold;
+
+    private final List<DataBuffer> buffers = new ArrayList<>();
+
+    private int memorySize;
+
+    private boolean spilling;
+
+    private DataBufferFactory factory;
+
+    private Path spillFile;
+
+    private FileChannel spillChannel;
+
+    private boolean released;
+
+    ReplayableBody(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * 缓存一个数据块，取得其所有权；超过内存上限后在弹性线程中写入临时文件
+     */
+    Mono<Void> append(DataBuffer buffer) {
+        synchronized (this) {
+            if (released) {
+                DataBufferUtils.release(buffer);
+                return Mono.empty();
+            }
+            if (factory == null) {
+                factory = buffer.factory();
+            }
+            int readable = buffer.readableByteCount();
+            if (!spilling && memorySize + readable <= memoryThreshold) {
+                buffers.add(buffer);
+                memorySize += readable;
+                return Mono.empty();
+            }
+            spilling = true;
+        }
+        return Mono.<Void>fromRunnable(() -> spill(buffer)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private void spill(DataBuffer buffer) {
+        try {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                if (spillChannel == null) {
+                    spillFile = Files.createTempFile(SPILL_PREFIX, ".tmp");
+                    spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+                }
+                ByteBuffer data = buffer.asByteBuffer();
+                while (data.hasRemaining()) {
+                    spillChannel.write(data);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    /**
+     * 请求体已全部读入
+     */
+    synchronized void complete() {
+        closeSpillChannel();
+    }
+
+    /**
+     * 重放请求体
+     */
+    Flux<DataBuffer> replay() {
+        Path file;
+        int count;
+        synchronized (this) {
+            if (released) {
+                return Flux.error(new IllegalStateException("Request body already released"));
+            }
+            file = spillFile;
+            count = buffers.size();
+        }
+        Flux<DataBuffer> memory = Flux.range(0, count).map(this::slice);
+        if (file == null) {
+            return memory;
+        }
+        return memory.concatWith(DataBufferUtils.read(file, factory, READ_BUFFER_SIZE));
+    }
+
+    private synchronized DataBuffer slice(int index) {
+        if (released) {
+            throw new IllegalStateException("Request body already released");
+        }
+        DataBuffer buffer = buffers.get(index);
+        return buffer.retainedSlice(buffer.readPosition(), buffer.readableByteCount());
+    }
+
+    /**
+     * 将内存中的部分写入日志
+     */
+    synchronized void writeTo(RequestLogWriter writer) {
+        for (DataBuffer buffer : buffers) {
+            writer.body(buffer.asByteBuffer());
+        }
+    }
+
+    /**
+     * 是否有部分写入了临时文件（日志中只记录内存中的部分）
+     */
+    synchronized boolean isSpilled() {
+        return spilling;
+    }
+
+    synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        buffers.forEach(DataBufferUtils::release);
+        buffers.clear();
+        closeSpillChannel();
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                log.warn("Failed to delete request body spill file: {}", spillFile, e);
+            }
+        }
+    }
+
+    private void closeSpillChannel() {
+        if (spillChannel == null) {
+            return;
+        }
+        try {
+            spillChannel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close request body spill file: {}", spillFile, e);
+        }
+        spillChannel = null;
+    }
+}
@@ -0,0 +1,258 @@
+package com.ch.cloud.gateway.filter;
+
+import com.ch.Constants;
+import com.ch.StatusS;
+import com.ch.cloud.gateway.conf.CookieConfig;
+import com.ch.cloud.gateway.pojo.AuthCodeGrant;
+import com.ch.cloud.gateway.pojo.AuthContext;
+import com.ch.cloud.gateway.pojo.CacheType;
+import com.ch.cloud.gateway.pojo.PermissionClass;
+import com.ch.cloud.gateway.service.AuthCodeService;
+import com.ch.cloud.gateway.service.CookieRefreshService;
+import com.ch.cloud.gateway.service.PermissionCacheService;
+import com.ch.cloud.gateway.utils.UserAuthUtils;
+import com.ch.cloud.sso.pojo.UserInfo;
+import com.ch.e.Error;
+import com.ch.e.PubError;
+import com.ch.result.Result;
+import com.ch.utils.CommonUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * 统一权限过滤器
+ * <p>
+ * 按请求权限分类索引一次完成分类（白名单 / 临时授权码 / 登录 / 角色，以及是否支持Cookie token），
+ * 然后只执行对应的校验，校验通过后只修改一次请求（写入用户信息请求头）。校验结果保存在 {@link AuthContext} 中，
+ * 后续过滤器通过 {@link AuthContext#get(ServerWebExchange)} 获取。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Slf4j
+public class AuthorizationFilter implements GlobalFilter, Ordered {
+
+    @Autowired
+    private PermissionCacheService permissionCacheService;
+
+    @Autowired
+    private CookieRefreshService cookieRefreshService;
+
+    @Autowired
+    private AuthCodeService authCodeService;
+
+    @Autowired
+    private CookieConfig cookieConfig;
+
+    @Override
+    public int getOrder() {
+        return -200;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getURI().getPath();
+        HttpMethod method = request.getMethod();
+        AuthContext context = new AuthContext();
+        exchange.getAttributes().put(AuthContext.ATTRIBUTE, context);
+        return permissionCacheService.getRouteClassIndex().flatMap(index -> {
+            PermissionClass permissionClass = index.classify(path, method);
+            context.setPermissionClass(permissionClass);
+            log.debug("权限检查: {}，分类: {}", path, permissionClass);
+            switch (permissionClass) {
+                case WHITE:
+                    context.setDecision(AuthContext.Decision.ALLOW);
+                    return chain.filter(exchange);
+                case TEMP:
+                    return authCode(exchange, chain);
+                default:
+                    String token = request.getHeaders().getFirst(Constants.X_TOKEN);
+                    if (CommonUtils.isEmpty(token) && index.isCookieSupported(path, method)) {
+                        log.debug("路径 {} 支持Cookie token校验", path);
+                        return cookieToken(exchange).flatMap(
+                                cookieToken -> authenticate(exchange, chain, permissionClass, cookieToken, true));
+                    }
+                    return authenticate(exchange, chain, permissionClass, token, false);
+            }
+        });
+    }
+
+    /**
+     * 临时授权码校验，通过则直接放行
+     */
+    private Mono<Void> authCode(ServerWebExchange exchange, GatewayFilterChain chain) {
+        String tempToken = exchange.getRequest().getQueryParams().getFirst("apiKey");
+        String path = exchange.getRequest().getURI().getPath();
+        log.debug("授权码校验: {}，apiKey={}", path, tempToken);
+
+        if (CommonUtils.isEmpty(tempToken)) {
+            log.warn("授权码缺失，路径: {}，必须提供apiKey参数", path);
+            return deny(exchange, Result.error(PubError.INVALID, "缺少临时授权码apiKey参数"));
+        }
+        // 校验授权码（本地缓存编译后的授权码，使用次数在Redis中原子计数）
+        return authCodeService.getGrant(tempToken).flatMap(result -> {
+            if (!result.isSuccess()) {
+                log.warn("授权码校验失败: {}，{}", tempToken, result.getMessage());
+                return deny(exchange, result);
+            }
+            return verifyAuthCode(exchange, chain, tempToken, result.get());
+        });
+    }
+
+    private Mono<Void> verifyAuthCode(ServerWebExchange exchange, GatewayFilterChain chain, String tempToken,
+            AuthCodeGrant grant) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getURI().getPath();
+        if (!grant.isEnabled()) {
+            log.warn("授权码状态无效: {}", tempToken);
+            return deny(exchange, Result.error(PubError.INVALID, "授权码状态无效"));
+        }
+        if (grant.isExpired(System.currentTimeMillis())) {
+            log.warn("授权码已过期: {}", tempToken);
+            return deny(exchange, Result.error(PubError.INVALID, "授权码已过期"));
+        }
+        // 校验授权码允许的接口
+        if (!grant.permits(path, request.getMethod())) {
+            log.warn("授权码权限不足: {}，path: {}", tempToken, path);
+            return deny(exchange, Result.error(PubError.NOT_AUTH, "授权码无权访问该接口"));
+        }
+        // 其它校验通过后才计入使用次数
+        return authCodeService.tryUse(grant).flatMap(usable -> {
+            if (!usable) {
+                log.warn("授权码已超出最大使用次数: {}", tempToken);
+                return deny(exchange, Result.error(PubError.INVALID, "授权码已超出最大使用次数"));
+            }
+            log.info("授权码校验通过，路径: {}，token: {}", path, tempToken);
+            AuthContext.get(exchange).setDecision(AuthContext.Decision.ALLOW);
+            return chain.filter(exchange);
+        });
+    }
+
+    /**
+     * 从Cookie获取token，即将过期时刷新Cookie，已过期时用refresh token换取新token
+     *
+     * @return Cookie token，没有可用token时为空字符串
+     */
+    private Mono<String> cookieToken(ServerWebExchange exchange) {
+        ServerHttpResponse resp = exchange.getResponse();
+        String path = exchange.getRequest().getURI().getPath();
+        String cookieToken = getCookieToken(exchange.getRequest(), null);
+        if (CommonUtils.isNotEmpty(cookieToken)) {
+            return cookieRefreshService.needRefreshCookie(cookieToken).map(needRefresh -> {
+                if (needRefresh) {
+                    log.debug("Cookie Token 即将过期，开始刷新，当前路径: {}", path);
+                    cookieRefreshService.refreshCookie(resp, cookieToken);
+                }
+                return cookieToken;
+            });
+        }
+
+        log.debug("Cookie Token 已过期，开始刷新，当前路径: {}", path);
+        String refreshToken = getCookieToken(exchange.getRequest(), Constants.X_REFRESH_TOKEN);
+        return cookieRefreshService.refreshToken(cookieToken, refreshToken).defaultIfEmpty("").map(newToken -> {
+            if (CommonUtils.isNotEmpty(newToken)) {
+                cookieRefreshService.refreshCookie(resp, newToken);
+                log.debug("刷新token: {}，路径: {}", newToken, path);
+            } else {
+                cookieRefreshService.clearCookie(resp);
+            }
+            return newToken;
+        });
+    }
+
+    /**
+     * 从Cookie中获取token
+     */
+    private String getCookieToken(ServerHttpRequest request, String cookieName) {
+        String name = cookieName == null ? cookieConfig.getTokenName() : cookieName;
+        MultiValueMap<String, HttpCookie> cookies = request.getCookies();
+        HttpCookie cookie = cookies.getFirst(name);
+        if (cookie == null) {
+            return null;
+        }
+        if (cookie.getValue().startsWith("Bearer ")) {
+            return cookie.getValue().substring(7);
+        } else if (cookie.getValue().startsWith("Bearer%20")) {
+            return cookie.getValue().substring(9);
+        }
+        return cookie.getValue();
+    }
+
+    /**
+     * 登录校验，需要角色权限时再校验角色权限
+     *
+     * @param fromCookie token是否来自Cookie，是则一并写入请求头
+     */
+    private Mono<Void> authenticate(ServerWebExchange exchange, GatewayFilterChain chain,
+            PermissionClass permissionClass, String token, boolean fromCookie) {
+        ServerHttpResponse resp = exchange.getResponse();
+        if (CommonUtils.isEmpty(token)) {
+            return deny(exchange, Result.error(PubError.NOT_LOGIN, "未登录，请先登陆..."));
+        }
+        String cookieToken = fromCookie ? token : null;
+        return UserAuthUtils.getUserInfo(token).flatMap(userResult -> {
+            if (!userResult.isSuccess()) {
+                PubError err = PubError.fromCode(userResult.getCode());
+                if (err == PubError.EXPIRED) {
+                    UserAuthUtils.refreshToken(resp, StatusS.ENABLED);
+                }
+                return deny(exchange, Result.error(err, userResult.getMessage()));
+            }
+            UserInfo user = userResult.get();
+            if (permissionClass == PermissionClass.LOGIN) {
+                log.debug("登录权限验证通过，用户: {}", user.getUsername());
+                return allow(exchange, chain, user, cookieToken);
+            }
+            return authorize(exchange, chain, user, cookieToken);
+        });
+    }
+
+    /**
+     * 角色权限校验
+     */
+    private Mono<Void> authorize(ServerWebExchange exchange, GatewayFilterChain chain, UserInfo user,
+            String cookieToken) {
+        String path = exchange.getRequest().getURI().getPath();
+        return permissionCacheService.getMatcher(CacheType.PERMISSIONS_AUTH_LIST, user.getRoleId())
+                .flatMap(authPermissions -> {
+                    if (!authPermissions.matches(path, exchange.getRequest().getMethod())) {
+                        log.warn("用户 {} 没有访问路径 {} 的权限", user.getUsername(), path);
+                        return UserAuthUtils.getRoleInfo(user.getUsername(), user.getRoleId())
+                                .flatMap(roleInfo -> deny(exchange, Result.error(
+                                        Error.buildWithArgs(PubError.NOT_AUTH, "角色:" + roleInfo.getName(), path))));
+                    }
+                    log.debug("角色权限验证通过，用户: {}, 角色: {}", user.getUsername(), user.getRoleId());
+                    return allow(exchange, chain, user, cookieToken);
+                });
+    }
+
+    /**
+     * 校验通过，记录用户并将用户信息添加到请求头
+     */
+    private Mono<Void> allow(ServerWebExchange exchange, GatewayFilterChain chain, UserInfo user,
+            String cookieToken) {
+        AuthContext context = AuthContext.get(exchange);
+        context.setUser(user);
+        context.setDecision(AuthContext.Decision.ALLOW);
+        return UserAuthUtils.toUser(exchange, chain, user, cookieToken);
+    }
+
+    /**
+     * 校验失败，输出错误
+     */
+    private Mono<Void> deny(ServerWebExchange exchange, Result<?> result) {
+        AuthContext.get(exchange).setDecision(AuthContext.Decision.DENY);
+        return UserAuthUtils.authError(exchange.getResponse(), result);
+    }
+}
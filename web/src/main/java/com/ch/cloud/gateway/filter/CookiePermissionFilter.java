@@ -1,143 +0,0 @@
-package com.ch.cloud.gateway.filter;
-
-import com.ch.Constants;
-import com.ch.cloud.gateway.conf.CookieConfig;
-import com.ch.cloud.gateway.pojo.CacheType;
-import com.ch.cloud.gateway.service.CookieRefreshService;
-import com.ch.cloud.gateway.utils.UserAuthUtils;
-import com.ch.cloud.upms.dto.PermissionDto;
-import com.ch.e.PubError;
-import com.ch.result.Result;
-import com.ch.utils.CommonUtils;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.cloud.gateway.filter.GatewayFilterChain;
-import org.springframework.http.HttpCookie;
-import org.springframework.http.ResponseCookie;
-import org.springframework.http.server.reactive.ServerHttpRequest;
-import org.springframework.http.server.reactive.ServerHttpResponse;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.server.ServerWebExchange;
-import reactor.core.publisher.Mono;
-
-import java.util.Collection;
-
-/**
- * Cookie权限过滤器
- * 处理支持Cookie token的路径，并支持Cookie自动刷新
- *
- * @author zhimi
- * @since 2024-1-1
- */
-@Configuration
-@Slf4j
-public class CookiePermissionFilter extends AbstractPermissionFilter {
-
-    @Autowired
-    private CookieRefreshService cookieRefreshService;
-
-    @Autowired
-    private CookieConfig cookieConfig;
-
-    @Override
-    protected int getFilterOrder() {
-        return -180; // 在登录权限之前执行
-    }
-
-    @Override
-    protected Mono<Void> doFilter(ServerWebExchange exchange, GatewayFilterChain chain) {
-        String path = exchange.getRequest().getURI().getPath();
-        log.debug("Cookie权限检查: {}", path);
-
-        // 从Cookie中获取token
-        String cookieToken = getCookieToken(exchange.getRequest(), null);
-//        log.debug("从Cookie中获取到的token: {}", cookieToken);
-        if (CommonUtils.isNotEmpty(cookieToken)) {
-            // 检查并刷新Cookie
-            if (cookieRefreshService.needRefreshCookie(cookieToken)) {
-                log.debug("Cookie Token 即将过期，开始刷新，当前路径: {}", path);
-                cookieRefreshService.refreshCookie(exchange.getResponse(), cookieToken);
-            }
-
-            // 将Cookie token添加到请求头中，供后续过滤器使用
-            ServerHttpRequest mutableReq = exchange.getRequest().mutate()
-                    .header(Constants.X_TOKEN, cookieToken)
-                    .build();
-            ServerWebExchange mutableExchange = exchange.mutate().request(mutableReq).build();
-            log.debug("从Cookie中获取到token: {}，路径: {}", cookieToken, path);
-            return chain.filter(mutableExchange);
-        } else {
-
-            log.debug("Cookie Token 已过期，开始刷新，当前路径: {}", path);
-            String refreshToken = getCookieToken(exchange.getRequest(), Constants.X_REFRESH_TOKEN);
-            String newToken = cookieRefreshService.refreshToken(cookieToken, refreshToken);
-
-            if (CommonUtils.isNotEmpty(newToken)) {
-                cookieRefreshService.refreshCookie(exchange.getResponse(), newToken);
-
-                // 将Cookie token添加到请求头中，供后续过滤器使用
-                ServerHttpRequest mutableReq = exchange.getRequest().mutate()
-                        .header(Constants.X_TOKEN, newToken)
-                        .build();
-                ServerWebExchange mutableExchange = exchange.mutate().request(mutableReq).build();
-                log.debug("刷新token: {}，路径: {}", newToken, path);
-                return chain.filter(mutableExchange);
-            } else {
-                cookieRefreshService.clearCookie(exchange.getResponse());
-            }
-        }
-
-        // 没有Cookie token，继续下一个过滤器
-        return chain.filter(exchange);
-    }
-
-    /**
-     * 从Cookie中获取token
-     */
-    private String getCookieToken(ServerHttpRequest request, String cookieName) {
-        String name = cookieName == null ? cookieConfig.getTokenName() : cookieName;
-        MultiValueMap<String, HttpCookie> cookies = request.getCookies();
-        HttpCookie cookie = cookies.getFirst(name);
-        if (cookie == null) {
-            return null;
-        }
-        if (cookie.getValue().startsWith("Bearer ")) {
-            return cookie.getValue().substring(7);
-        } else if (cookie.getValue().startsWith("Bearer%20")) {
-            return cookie.getValue().substring(9);
-        }
-        return cookie.getValue();
-    }
-
-    @Override
-    protected boolean shouldSkip(ServerWebExchange exchange) {
-        // 如果已经被白名单或授权码处理，则跳过
-        return true;
-    }
-
-    @Override
-    protected boolean shouldProcess(ServerWebExchange exchange) {
-
-        String token = exchange.getRequest().getHeaders().getFirst(Constants.X_TOKEN);
-        // 如果Header有token，则跳过
-        if (CommonUtils.isNotEmpty(token)) {
-//            log.debug("请求Header已包含token，路径: {}", exchange.getRequest().getURI().getPath());
-            return false;
-        }
-        String path = exchange.getRequest().getURI().getPath();
-        Collection<PermissionDto> cookiePermissions = getPermissions(CacheType.PERMISSIONS_COOKIE_LIST, null);
-
-        if (!cookiePermissions.isEmpty()) {
-            boolean isCookieSupported = checkPermissions(cookiePermissions, path, exchange.getRequest().getMethod());
-            if (isCookieSupported) {
-                log.debug("路径 {} 支持Cookie token校验", path);
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-
-}
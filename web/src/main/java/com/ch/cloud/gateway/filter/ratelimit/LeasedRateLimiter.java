@@ -0,0 +1,288 @@
+package com.ch.cloud.gateway.filter.ratelimit;
+
+import com.ch.cloud.gateway.conf.RateLimiterConfig;
+import com.ch.cloud.gateway.utils.SingleFlight;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.cloud.gateway.event.FilterArgsEvent;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.validation.annotation.Validated;
+import reactor.core.publisher.Mono;
+
+import javax.validation.constraints.Min;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 租借令牌限流器
+ * <p>
+ * 与 RedisRateLimiter 使用相同的令牌桶算法，但每次从Redis租借一批令牌（Lua脚本原子扣减），
+ * 由本地无锁计数器逐个发放，只有租约用完或到期后才再次访问Redis；同一个key并发租借合并为一次。
+ * 每个key首次只租借1个令牌，租期内用完则下次加倍（不超过 leaseSize），到期未用完则下次按实际用量租借，
+ * 低频key在多个节点上不会各自占用整批令牌。
+ * Redis中令牌不足时租约为空，在补充一个令牌所需的时间内直接拒绝，不再访问Redis。
+ * Redis不可用时放行（与 RedisRateLimiter 一致）。路由参数兼容 redis-rate-limiter.replenishRate/burstCapacity。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Slf4j
+public class LeasedRateLimiter extends AbstractRateLimiter<LeasedRateLimiter.Config> {
+
+    public static final String CONFIGURATION_PROPERTY_NAME = "leased-rate-limiter";
+
+    /**
+     * 兼容 RedisRateLimiter 的路由参数前缀，已有路由无需修改配置
+     */
+    public static final String REDIS_RATE_LIMITER_PROPERTY_NAME = "redis-rate-limiter";
+
+    /**
+     * Redis中令牌桶key前缀，时间戳为毫秒，与 RedisRateLimiter（request_rate_limiter，秒）区分，滚动发布时互不影响
+     */
+    private static final String KEY_PREFIX = "leased_rate_limiter.{";
+
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+
+    public static final String REPLENISH_RATE_HEADER = "X-RateLimit-Replenish-Rate";
+
+    public static final String BURST_CAPACITY_HEADER = "X-RateLimit-Burst-Capacity";
+
+    /**
+     * 按令牌桶补充令牌后租借不超过 ARGV[3] 个令牌，返回 {租借数, 剩余令牌数}
+     */
+    private static final String LEASE_SCRIPT = "redis.replicate_commands()\n"
+            + "local rate = tonumber(ARGV[1])\n"
+            + "local capacity = tonumber(ARGV[2])\n"
+            + "local requested = tonumber(ARGV[3])\n"
+            + "local time = redis.call('TIME')\n"
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)\n"
+            + "local ttl = math.floor(capacity / rate * 2) + 1\n"
+            + "local tokens = tonumber(redis.call('get', KEYS[1])) or capacity\n"
+            + "local refreshed = tonumber(redis.call('get', KEYS[2])) or 0\n"
+            + "local filled = math.min(capacity, tokens + math.max(0, now - refreshed) * rate / 1000)\n"
+            + "local granted = math.min(requested, math.floor(filled))\n"
+            + "redis.call('setex', KEYS[1], ttl, filled - granted)\n"
+            + "redis.call('setex', KEYS[2], ttl, now)\n"
+            + "return {granted, math.floor(filled - granted)}";
+
+    private final RedissonClient redissonClient;
+
+    private final RateLimiterConfig properties;
+
+    /**
+     * 路由ID -> 未配置的参数以默认值补全后的配置，路由参数变化时清空
+     */
+    private final Map<String, Config> effectiveConfigs = new ConcurrentHashMap<>();
+
+    private final Cache<String, Lease> leases;
+
+    private final SingleFlight<String, Lease> leasing = new SingleFlight<>();
+
+    public LeasedRateLimiter(RedissonClient redissonClient, RateLimiterConfig properties,
+            ConfigurationService configurationService) {
+        super(Config.class, CONFIGURATION_PROPERTY_NAME, configurationService);
+        this.redissonClient = redissonClient;
+        this.properties = properties;
+        this.leases = CacheBuilder.newBuilder().maximumSize(properties.getMaxKeys())
+                .expireAfterAccess(Math.max(properties.getLeaseTtl(), 1000) * 2, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * 路由参数中的 redis-rate-limiter.* 按 leased-rate-limiter.* 绑定，同名时以 leased-rate-limiter 为准
+     */
+    @Override
+    public void onApplicationEvent(FilterArgsEvent event) {
+        Map<String, Object> args = event.getArgs();
+        String legacyPrefix = REDIS_RATE_LIMITER_PROPERTY_NAME + '.';
+        if (args.keySet().stream().noneMatch(key -> key.startsWith(legacyPrefix))) {
+            super.onApplicationEvent(event);
+            effectiveConfigs.remove(event.getRouteId());
+            return;
+        }
+        Map<String, Object> merged = new HashMap<>(args);
+        args.forEach((key, value) -> {
+            if (key.startsWith(legacyPrefix)) {
+                merged.putIfAbsent(CONFIGURATION_PROPERTY_NAME + '.' + key.substring(legacyPrefix.length()), value);
+            }
+        });
+        super.onApplicationEvent(new FilterArgsEvent(event.getSource(), event.getRouteId(), merged));
+        effectiveConfigs.remove(event.getRouteId());
+    }
+
+    /**
+     * 路由配置中未设置的参数使用 {@link RateLimiterConfig} 中的默认值
+     */
+    private Config effectiveConfig(String routeId) {
+        return effectiveConfigs.computeIfAbsent(routeId, id -> {
+            Config config = getConfig().get(id);
+            Config effective = new Config().setReplenishRate(properties.getReplenishRate())
+                    .setBurstCapacity(properties.getBurstCapacity());
+            if (config != null && config.getReplenishRate() != null) {
+                effective.setReplenishRate(config.getReplenishRate());
+            }
+            if (config != null && config.getBurstCapacity() != null) {
+                effective.setBurstCapacity(config.getBurstCapacity());
+            }
+            return effective;
+        });
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        Config config = effectiveConfig(routeId);
+        String key = routeId + '.' + id;
+        Lease lease = leases.getIfPresent(key);
+        if (lease != null && !lease.isExpired()) {
+            if (lease.tryAcquire()) {
+                return Mono.just(response(true, config, lease));
+            }
+            if (lease.granted == 0) {
+                // Redis中令牌不足，等待补充
+                return Mono.just(response(false, config, lease));
+            }
+        }
+        return acquire(key, config, true).onErrorResume(e -> {
+            log.error("Error determining if user allowed from redis", e);
+            return Mono.just(new Response(true, headers(config, -1)));
+        });
+    }
+
+    private Mono<Response> acquire(String key, Config config, boolean retry) {
+        return leasing.execute(key, () -> lease(key, config)).flatMap(lease -> {
+            if (lease.tryAcquire()) {
+                return Mono.just(response(true, config, lease));
+            }
+            if (lease.granted > 0 && retry) {
+                // 新租约已被并发请求用完，再租借一次
+                return acquire(key, config, false);
+            }
+            return Mono.just(response(false, config, lease));
+        });
+    }
+
+    private Mono<Lease> lease(String key, Config config) {
+        int requested = nextLeaseSize(leases.getIfPresent(key), config);
+        List<Object> keys = Arrays.asList(KEY_PREFIX + key + "}.tokens", KEY_PREFIX + key + "}.timestamp");
+        RScript script = redissonClient.getScript(StringCodec.INSTANCE);
+        return Mono.<List<Long>>fromCompletionStage(() -> script.evalAsync(RScript.Mode.READ_WRITE, LEASE_SCRIPT,
+                RScript.ReturnType.MULTI, keys, config.getReplenishRate(), config.getBurstCapacity(), requested))
+                .map(result -> {
+                    long granted = result.get(0);
+                    long now = System.currentTimeMillis();
+                    long ttl = granted > 0 ? properties.getLeaseTtl()
+                            : Math.max(1, 1000 / Math.max(1, config.getReplenishRate()));
+                    Lease lease = new Lease(requested, granted, now + ttl);
+                    leases.put(key, lease);
+                    return lease;
+                });
+    }
+
+    /**
+     * 根据上一个租约的消耗情况决定本次租借数：首次为1，租期内用完加倍，到期未用完按实际用量，令牌不足时不变
+     */
+    private int nextLeaseSize(Lease previous, Config config) {
+        int max = Math.max(1, Math.min(properties.getLeaseSize(), config.getBurstCapacity()));
+        if (previous == null) {
+            return 1;
+        }
+        long next;
+        if (previous.granted == 0) {
+            next = previous.requested;
+        } else if (previous.tokens.get() <= 0) {
+            next = previous.requested * 2L;
+        } else {
+            next = previous.granted - previous.tokens.get();
+        }
+        return (int) Math.max(1, Math.min(max, next));
+    }
+
+    private Response response(boolean allowed, Config config, Lease lease) {
+        return new Response(allowed, headers(config, Math.max(0, lease.tokens.get())));
+    }
+
+    private Map<String, String> headers(Config config, long remaining) {
+        Map<String, String> headers = new HashMap<>(4);
+        headers.put(REMAINING_HEADER, String.valueOf(remaining));
+        headers.put(REPLENISH_RATE_HEADER, String.valueOf(config.getReplenishRate()));
+        headers.put(BURST_CAPACITY_HEADER, String.valueOf(config.getBurstCapacity()));
+        return headers;
+    }
+
+    /**
+     * 本地租约
+     */
+    private static final class Lease {
+
+        private final int requested;
+
+        private final long granted;
+
+        private final AtomicLong tokens;
+
+        private final long expiresAt;
+
+        private Lease(int requested, long granted, long expiresAt) {
+            this.requested = requested;
+            this.granted = granted;
+            this.tokens = new AtomicLong(granted);
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        boolean tryAcquire() {
+            long current;
+            do {
+                current = tokens.get();
+                if (current <= 0 || isExpired()) {
+                    return false;
+                }
+            } while (!tokens.compareAndSet(current, current - 1));
+            return true;
+        }
+    }
+
+    /**
+     * 路由限流配置，路由参数前缀为 leased-rate-limiter（兼容 redis-rate-limiter），
+     * 未配置的参数使用 {@link RateLimiterConfig} 中的默认值
+     */
+    @Data
+    @Validated
+    public static class Config {
+
+        /**
+         * 每秒补充的令牌数
+         */
+        @Min(1)
+        private Integer replenishRate;
+
+        /**
+         * 令牌桶容量
+         */
+        @Min(1)
+        private Integer burstCapacity;
+
+        public Config setReplenishRate(Integer replenishRate) {
+            this.replenishRate = replenishRate;
+            return this;
+        }
+
+        public Config setBurstCapacity(Integer burstCapacity) {
+            this.burstCapacity = burstCapacity;
+            return this;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.ch.cloud.gateway.filter.request;
 
 import com.ch.cloud.gateway.conf.RequestRecorderConfig;
 import com.ch.cloud.gateway.utils.GatewayConstants;
+import com.ch.cloud.gateway.utils.SensitiveMasker;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -15,6 +16,7 @@ import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
+import java.util.List;
 
 /**
  * 请求记录过滤器抽象基类
@@ -28,6 +30,8 @@ public abstract class AbsRequestRecorderFilter implements GlobalFilter, Ordered
     @Autowired
     protected RequestRecorderConfig config;
 
+    private volatile SensitiveMasker sensitiveMasker;
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
         // 检查是否启用请求记录
@@ -116,20 +120,21 @@ public abstract class AbsRequestRecorderFilter implements GlobalFilter, Ordered
     }
 
     /**
-     * 脱敏处理
+     * 敏感字段匹配器，敏感字段列表刷新后重新编译
+     *
+     * @return 未启用脱敏时为null
      */
-    protected String maskSensitiveInfo(String content) {
-        if (!config.isEnableSensitiveMasking() || content == null) {
-            return content;
+    protected SensitiveMasker getSensitiveMasker() {
+        List<String> fields = config.getSensitiveFields();
+        if (!config.isEnableSensitiveMasking() || fields == null || fields.isEmpty()) {
+            return null;
         }
-        
-        String masked = content;
-        for (String field : config.getSensitiveFields()) {
-            // 简单的脱敏处理，实际项目中可以使用更复杂的正则表达式
-            masked = masked.replaceAll("(?i)" + field + "\\s*[:=]\\s*[^\\s,}]+", 
-                    field + "=***");
+        SensitiveMasker masker = sensitiveMasker;
+        if (masker == null || !masker.isCompiledFrom(fields)) {
+            masker = SensitiveMasker.compile(fields);
+            sensitiveMasker = masker;
         }
-        return masked;
+        return masker;
     }
 
     /**
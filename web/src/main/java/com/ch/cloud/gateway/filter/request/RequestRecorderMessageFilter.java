@@ -1,24 +1,32 @@
 package com.ch.cloud.gateway.filter.request;
 
+import com.ch.cloud.gateway.decorator.RecorderPrefixServerHttpRequestDecorator;
 import com.ch.cloud.gateway.decorator.RecorderServerHttpRequestDecorator;
 import com.ch.cloud.gateway.decorator.RecorderServerHttpResponseDecorator;
+import com.ch.cloud.gateway.pojo.AuthContext;
+import com.ch.cloud.gateway.service.RequestLogPublisher;
 import com.ch.cloud.gateway.utils.GatewayLogUtil;
+import com.ch.cloud.gateway.utils.RecordPolicyIndex;
 import lombok.extern.log4j.Log4j2;
-import org.apache.rocketmq.client.producer.SendCallback;
-import org.apache.rocketmq.client.producer.SendResult;
-import org.apache.rocketmq.spring.core.RocketMQTemplate;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.List;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
 
 /**
- * 请求记录消息过滤器 将请求日志发送到RocketMQ
+ * 请求记录消息过滤器 将请求日志异步批量发送到RocketMQ
+ * <p>
+ * 按记录策略（{@link RecordPolicyIndex}）决定完整记录、尾部决策记录（完成后只输出出错或慢请求）或不记录。
  *
  * @author zhimi
  * @since 2024-1-1
@@ -27,40 +35,103 @@ import java.util.List;
 @Log4j2
 public class RequestRecorderMessageFilter extends AbsRequestRecorderFilter {
     
-    @Value("${rocketmq.enabled:false}")
-    private Boolean mqOn;
-    
     @Resource
-    private RocketMQTemplate rocketMQTemplate;
+    private RequestLogPublisher requestLogPublisher;
     
-    public static final String MQ_TOPIC = "request-logs";
+    private volatile RecordPolicyIndex recordPolicyIndex;
     
     @Override
     protected Mono<Void> filterLog(ServerWebExchange exchange, GatewayFilterChain chain) {
+        // 在建立请求体缓存之前按记录策略决定记录方式
+        ServerHttpRequest originalRequest = exchange.getRequest();
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        RecordPolicyIndex.Decision decision = getRecordPolicyIndex().decide(route == null ? null : route.getId(),
+                originalRequest.getPath().value(), originalRequest.getMethod());
         // 检查请求体大小
-        if (isRequestBodyTooLarge(exchange.getRequest())) {
-            log.warn("Request body too large, skipping recording: {}", exchange.getRequest().getURI());
-            return chain.filter(exchange);
+        if (decision == RecordPolicyIndex.Decision.FULL && isRequestBodyTooLarge(originalRequest)) {
+            log.warn("Request body too large, skipping recording: {}", originalRequest.getURI());
+            decision = config.isAlwaysRecordErrors() || config.getSlowThreshold() > 0
+                    ? RecordPolicyIndex.Decision.TAIL : RecordPolicyIndex.Decision.SKIP;
         }
-        
+        switch (decision) {
+            case SKIP:
+                return chain.filter(exchange);
+            case TAIL:
+                return filterTail(exchange, chain);
+            default:
+                return filterFull(exchange, chain);
+        }
+    }
+    
+    /**
+     * 完整记录请求体、响应体
+     */
+    private Mono<Void> filterFull(ServerWebExchange exchange, GatewayFilterChain chain) {
         // 在 GatewayFilter 之前执行，此时的request是最初的request
-        RecorderServerHttpRequestDecorator request = new RecorderServerHttpRequestDecorator(exchange.getRequest());
+        // 请求体只读取一次，内存中超过 bodySpillThreshold 的部分写入临时文件
+        RecorderServerHttpRequestDecorator request = new RecorderServerHttpRequestDecorator(exchange.getRequest(),
+                config.getBodySpillThreshold());
         
-        // 此时的response是发送回客户端的response
-        RecorderServerHttpResponseDecorator response = new RecorderServerHttpResponseDecorator(exchange.getResponse());
+        // 此时的response是发送回客户端的response，响应体边写边记录，只保留前 maxResponseBodySize 字节
+        RecorderServerHttpResponseDecorator response = new RecorderServerHttpResponseDecorator(exchange.getResponse(),
+                config.isRecordResponseBody() ? config.getMaxResponseBodySize() : 0);
         
         ServerWebExchange ex = exchange.mutate().request(request).response(response).build();
         
         long startTimeMillis = System.currentTimeMillis();
         
-        return GatewayLogUtil.recorderOriginalRequest(ex).then(Mono.defer(() -> chain.filter(ex)))
+        return GatewayLogUtil.recorderOriginalRequest(ex, getSensitiveMasker())
+                .then(Mono.defer(() -> chain.filter(ex)))
                 .then(Mono.defer(() -> finishLog(ex, startTimeMillis))).timeout(Duration.ofMillis(config.getTimeout()))
+                .doFinally(signal -> {
+                    request.release();
+                    response.release();
+                })
                 .onErrorResume(throwable -> {
                     log.error("Request recording failed: {}", exchange.getRequest().getURI(), throwable);
                     return chain.filter(exchange);
                 });
     }
     
+    /**
+     * 尾部决策记录：不缓存请求体，只复制少量请求体、响应体前缀，请求完成后按状态码、异常、耗时决定是否输出
+     */
+    private Mono<Void> filterTail(ServerWebExchange exchange, GatewayFilterChain chain) {
+        RecorderPrefixServerHttpRequestDecorator request = new RecorderPrefixServerHttpRequestDecorator(
+                exchange.getRequest(), config.getTailBodySize());
+        RecorderServerHttpResponseDecorator response = new RecorderServerHttpResponseDecorator(exchange.getResponse(),
+                config.getTailBodySize());
+        ServerWebExchange ex = exchange.mutate().request(request).response(response).build();
+        long startTimeMillis = System.currentTimeMillis();
+        return chain.filter(ex).doFinally(signal -> {
+            try {
+                long endTimeMillis = System.currentTimeMillis();
+                if (shouldRecordTail(ex, signal, endTimeMillis - startTimeMillis)) {
+                    publish(ex, GatewayLogUtil.getSummaryLogData(ex, getSensitiveMasker(), startTimeMillis,
+                            endTimeMillis));
+                }
+            } catch (Exception e) {
+                log.error("Failed to process request log: {}", exchange.getRequest().getURI(), e);
+            } finally {
+                request.release();
+                response.release();
+            }
+        });
+    }
+    
+    /**
+     * 请求完成后是否记录：出错（状态码不小于 errorStatus 或异常）或慢请求
+     */
+    private boolean shouldRecordTail(ServerWebExchange exchange, SignalType signal, long elapsed) {
+        if (config.isAlwaysRecordErrors()) {
+            HttpStatus status = exchange.getResponse().getStatusCode();
+            if (signal == SignalType.ON_ERROR || status != null && status.value() >= config.getErrorStatus()) {
+                return true;
+            }
+        }
+        return config.getSlowThreshold() > 0 && elapsed >= config.getSlowThreshold();
+    }
+    
     /**
      * 完成日志记录
      */
@@ -68,16 +139,7 @@ public class RequestRecorderMessageFilter extends AbsRequestRecorderFilter {
         return GatewayLogUtil.recorderResponse(ex).doOnSuccess(x -> {
             try {
                 long endTimeMillis = System.currentTimeMillis();
-                String logStr = GatewayLogUtil.getLogData(ex, startTimeMillis, endTimeMillis);
-                
-                // 脱敏处理
-                logStr = maskSensitiveInfo(logStr);
-                
-                if (mqOn && logStr != null) {
-                    sendToMq(ex, logStr);
-                } else {
-                    log.info("request log:\n{}",logStr);
-                }
+                publish(ex, GatewayLogUtil.getLogData(ex, startTimeMillis, endTimeMillis));
             } catch (Exception e) {
                 log.error("Failed to process request log: {}", ex.getRequest().getURI(), e);
             }
@@ -87,35 +149,28 @@ public class RequestRecorderMessageFilter extends AbsRequestRecorderFilter {
         });
     }
     
+    private void publish(ServerWebExchange exchange, byte[] logData) {
+        if (logData == null) {
+            return;
+        }
+        if (requestLogPublisher.isEnabled()) {
+            // 放入发送队列，由发送线程批量发送到RocketMQ
+            requestLogPublisher.publish(AuthContext.username(exchange), logData);
+        } else {
+            log.info("request log:\n{}", new String(logData, StandardCharsets.UTF_8));
+        }
+    }
+    
     /**
-     * 发送日志到RocketMQ
+     * 记录策略索引，配置刷新后重建
      */
-    private void sendToMq(ServerWebExchange ex, String logStr) {
-        try {
-            List<String> uList = ex.getRequest().getHeaders().getOrEmpty("X-Token-User");
-            String topic = MQ_TOPIC;
-            if (!uList.isEmpty()) {
-                topic += ":" + uList.get(0);
-            }
-            
-            // 使用异步发送，避免阻塞
-            rocketMQTemplate.asyncSend(topic, logStr, new SendCallback() {
-                @Override
-                public void onSuccess(SendResult sendResult) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Request log sent successfully: {} => {}", ex.getRequest().getURI(),
-                                sendResult.getMsgId());
-                    }
-                }
-                
-                @Override
-                public void onException(Throwable e) {
-                    log.error("Failed to send request log: {}", ex.getRequest().getURI(), e);
-                }
-            });
-        } catch (Exception e) {
-            log.error("Exception while sending to MQ: {}", ex.getRequest().getURI(), e);
+    private RecordPolicyIndex getRecordPolicyIndex() {
+        RecordPolicyIndex index = recordPolicyIndex;
+        if (index == null || !index.isBuiltFrom(config)) {
+            index = RecordPolicyIndex.build(config);
+            recordPolicyIndex = index;
         }
+        return index;
     }
     
     @Override
@@ -1,6 +1,5 @@
 package com.ch.cloud.gateway.filter.request;
 
-import com.ch.cloud.gateway.decorator.RecorderServerHttpRequestDecorator;
 import com.ch.cloud.gateway.utils.GatewayLogUtil;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -28,15 +27,15 @@ public class RequestRecorderProxyFilter extends AbsRequestRecorderFilter {
         // 此时的request是经过各种转换、转发之后的request
         // 对应日志中的代理请求部分
         
+        // 按记录策略未完整记录的请求不再记录代理请求
+        if (!GatewayLogUtil.isRecording(exchange)) {
+            return chain.filter(exchange);
+        }
+        
+        // 请求体已由 RequestRecorderMessageFilter 缓存，这里不再包装
         try {
-            RecorderServerHttpRequestDecorator request = new RecorderServerHttpRequestDecorator(exchange.getRequest());
-            
-            ServerWebExchange ex = exchange.mutate()
-                    .request(request)
-                    .build();
-
-            return GatewayLogUtil.recorderRouteRequest(ex)
-                    .then(Mono.defer(() -> chain.filter(ex)))
+            return GatewayLogUtil.recorderRouteRequest(exchange)
+                    .then(Mono.defer(() -> chain.filter(exchange)))
                     .timeout(Duration.ofMillis(config.getTimeout()))
                     .onErrorResume(throwable -> {
                         log.error("Proxy request recording failed: {}", exchange.getRequest().getURI(), throwable);
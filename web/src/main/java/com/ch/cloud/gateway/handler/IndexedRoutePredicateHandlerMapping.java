@@ -0,0 +1,90 @@
+package com.ch.cloud.gateway.handler;
+
+import com.ch.cloud.gateway.utils.RouteLookupIndex;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_PREDICATE_ROUTE_ATTR;
+
+/**
+ * 使用路由索引的路由匹配
+ * <p>
+ * 先按 {@link RouteLookupIndex} 取出可能匹配的候选路由，再按原有顺序逐个执行断言，匹配结果与逐个路由匹配一致。
+ * 路由刷新完成后重建索引。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Log4j2
+public class IndexedRoutePredicateHandlerMapping extends RoutePredicateHandlerMapping
+        implements ApplicationListener<RefreshRoutesResultEvent> {
+
+    private final RouteLocator routeLocator;
+
+    private final RouteDefinitionLocator routeDefinitionLocator;
+
+    private volatile Mono<RouteLookupIndex> index;
+
+    public IndexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler, RouteLocator routeLocator,
+            RouteDefinitionLocator routeDefinitionLocator, GlobalCorsProperties globalCorsProperties,
+            Environment environment) {
+        super(webHandler, routeLocator, globalCorsProperties, environment);
+        this.routeLocator = routeLocator;
+        this.routeDefinitionLocator = routeDefinitionLocator;
+        this.index = buildIndex();
+    }
+
+    @Override
+    public void onApplicationEvent(RefreshRoutesResultEvent event) {
+        if (event.isSuccess()) {
+            index = buildIndex();
+        }
+    }
+
+    @Override
+    protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        String host = exchange.getRequest().getHeaders().getFirst("Host");
+        return index.flatMap(routeIndex -> Flux.fromIterable(routeIndex.candidates(path, host))
+                .concatMap(route -> Mono.just(route).filterWhen(r -> {
+                    exchange.getAttributes().put(GATEWAY_PREDICATE_ROUTE_ATTR, r.getId());
+                    return r.getPredicate().apply(exchange);
+                }).doOnError(e -> log.error("Error applying predicate for route: {}", route.getId(), e))
+                        .onErrorResume(e -> Mono.empty()))
+                .next())
+                .map(route -> {
+                    validateRoute(route, exchange);
+                    return route;
+                });
+    }
+
+    /**
+     * 建立索引（首次查找时执行，结果缓存），读取路由定义失败时不使用索引
+     */
+    private Mono<RouteLookupIndex> buildIndex() {
+        Mono<List<Route>> routes = routeLocator.getRoutes().collectList();
+        return Mono.zip(routes, routeDefinitionLocator.getRouteDefinitions().collectMap(RouteDefinition::getId))
+                .map(tuple -> RouteLookupIndex.build(tuple.getT1(), tuple.getT2()))
+                .onErrorResume(e -> {
+                    log.error("路由索引建立失败，逐个路由匹配", e);
+                    return routes.map(list -> RouteLookupIndex.build(list, Collections.emptyMap()));
+                })
+                .doOnNext(built -> log.info("路由索引已重建，路由数: {}", built.getRoutes().size()))
+                .cache();
+    }
+}
@@ -1,6 +1,8 @@
 package com.ch.cloud.gateway.mq;
 
 import com.ch.cloud.gateway.pojo.CacheType;
+import com.ch.cloud.gateway.service.PermissionCacheService;
+import com.ch.cloud.gateway.service.TokenRevocationService;
 import com.ch.cloud.sso.pojo.UserInfo;
 import com.ch.cloud.upms.dto.PermissionDto;
 import com.ch.pojo.KeyValue;
@@ -33,6 +35,12 @@ public class NotifyCleanReceiver implements RocketMQListener<KeyValue> {
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private PermissionCacheService permissionCacheService;
+
+    @Resource
+    private TokenRevocationService tokenRevocationService;
+
     @Override
     public void onMessage(KeyValue keyValue) {
         if (CommonUtils.isEmptyOr(keyValue.getKey(), keyValue.getValue())) {
@@ -49,11 +57,12 @@ public class NotifyCleanReceiver implements RocketMQListener<KeyValue> {
     }
 
     /**
-     * 将已失效的token用户清除
+     * 将已失效的token用户清除，并吊销该用户已签发的签名token
      *
      * @param keyValue 用户token
      */
     private void cleanUsers(KeyValue keyValue) {
+        tokenRevocationService.revoke(keyValue.getValue());
         RBucket<String> tokenBucket = redissonClient.getBucket(CacheType.GATEWAY_USER.key(keyValue.getValue()),
                 StringCodec.INSTANCE);
         String md5Token = tokenBucket.get();
@@ -64,7 +73,7 @@ public class NotifyCleanReceiver implements RocketMQListener<KeyValue> {
     }
 
     /**
-     * 将刷新角色对应的权限
+     * 将刷新角色对应的权限，并广播清理所有网关节点的本地缓存
      *
      * @param keyValue 权限（角色）
      */
@@ -72,8 +81,10 @@ public class NotifyCleanReceiver implements RocketMQListener<KeyValue> {
         RMapCache<String, List<PermissionDto>> permissionsMap = redissonClient.getMapCache(CacheType.PERMISSIONS_MAP.key(), JsonJacksonCodec.INSTANCE);
         if (permissionsMap.containsKey(keyValue.getValue())) {
             permissionsMap.remove(keyValue.getValue());
+            permissionCacheService.broadcastInvalidate(keyValue.getValue());
         } else {
             permissionsMap.clear();
+            permissionCacheService.broadcastInvalidate(PermissionCacheService.CLEAN_ALL);
         }
     }
 }
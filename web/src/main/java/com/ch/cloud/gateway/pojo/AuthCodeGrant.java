@@ -0,0 +1,90 @@
+package com.ch.cloud.gateway.pojo;
+
+import com.ch.cloud.gateway.utils.PermissionMatcher;
+import com.ch.cloud.upms.dto.AuthCodePermissionDTO;
+import lombok.Getter;
+import org.springframework.http.HttpMethod;
+
+/**
+ * 编译后的临时授权码
+ * <p>
+ * 保存授权码状态、过期时间、使用次数限制和编译后的允许接口匹配器，本地缓存后请求不再访问用户权限中心。
+ * 实例不可变，可在多线程间共享。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Getter
+public final class AuthCodeGrant {
+
+    /**
+     * 授权码
+     */
+    private final String code;
+
+    /**
+     * 状态是否有效
+     */
+    private final boolean enabled;
+
+    /**
+     * 过期时间（毫秒），0表示不过期
+     */
+    private final long expireAt;
+
+    /**
+     * 最大使用次数，为空表示不限制
+     */
+    private final Long maxUses;
+
+    /**
+     * 加载时用户权限中心记录的已使用次数
+     */
+    private final long usedCount;
+
+    /**
+     * 允许的接口，为空表示不限制
+     */
+    private final PermissionMatcher matcher;
+
+    private AuthCodeGrant(String code, boolean enabled, long expireAt, Long maxUses, long usedCount,
+            PermissionMatcher matcher) {
+        this.code = code;
+        this.enabled = enabled;
+        this.expireAt = expireAt;
+        this.maxUses = maxUses;
+        this.usedCount = usedCount;
+        this.matcher = matcher;
+    }
+
+    /**
+     * 编译授权码
+     */
+    public static AuthCodeGrant compile(String code, AuthCodePermissionDTO dto) {
+        boolean enabled = dto.getStatus() != null && dto.getStatus() == 1;
+        long expireAt = dto.getExpireTime() == null ? 0 : dto.getExpireTime().getTime();
+        Long maxUses = dto.getMaxUses() == null ? null : dto.getMaxUses().longValue();
+        long usedCount = dto.getUsedCount() == null ? 0 : dto.getUsedCount().longValue();
+        PermissionMatcher matcher = dto.getPermissions() == null || dto.getPermissions().isEmpty() ? null
+                : PermissionMatcher.compile(dto.getPermissions());
+        return new AuthCodeGrant(code, enabled, expireAt, maxUses, usedCount, matcher);
+    }
+
+    public boolean isExpired(long now) {
+        return expireAt > 0 && expireAt < now;
+    }
+
+    /**
+     * 是否限制使用次数
+     */
+    public boolean isLimited() {
+        return maxUses != null;
+    }
+
+    /**
+     * 是否允许访问该接口
+     */
+    public boolean permits(String path, HttpMethod method) {
+        return matcher == null || matcher.matches(path, method);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ch.cloud.gateway.pojo;
+
+import com.ch.cloud.sso.pojo.UserInfo;
+import lombok.Data;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * 请求权限校验上下文
+ * <p>
+ * 权限过滤器在请求进入时创建并放入 exchange 属性，过滤器之间通过该对象传递校验结果，不再通过内部请求头传递，
+ * 内部状态也不会转发到后端服务。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Data
+public class AuthContext {
+
+    public static final String ATTRIBUTE = AuthContext.class.getName();
+
+    /**
+     * 校验结果
+     */
+    private Decision decision = Decision.PENDING;
+
+    /**
+     * 请求权限分类
+     */
+    private PermissionClass permissionClass;
+
+    /**
+     * 登录用户，白名单和临时授权码请求为空
+     */
+    private UserInfo user;
+
+    /**
+     * 获取当前请求的权限校验上下文，没有经过权限过滤器时为空
+     */
+    public static AuthContext get(ServerWebExchange exchange) {
+        return exchange.getAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * 获取当前请求的登录用户名
+     */
+    public static String username(ServerWebExchange exchange) {
+        AuthContext context = get(exchange);
+        return context == null || context.user == null ? null : context.user.getUsername();
+    }
+
+    public enum Decision {
+        /**
+         * 未校验
+         */
+        PENDING,
+        /**
+         * 放行
+         */
+        ALLOW,
+        /**
+         * 拒绝
+         */
+        DENY
+    }
+}
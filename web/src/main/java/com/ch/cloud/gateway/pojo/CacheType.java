@@ -19,7 +19,10 @@ public enum CacheType {
     PERMISSIONS_AUTH_LIST("gateway:permission:auth", ""),
     PERMISSIONS_TEMP_LIST("gateway:permission:temp", "temp"),
     GATEWAY_TOKEN("gateway:token", "token"),
-    GATEWAY_USER("gateway:user", "user");
+    GATEWAY_USER("gateway:user", "user"),
+    GATEWAY_REVOKED("gateway:revoked", "revoked"),
+    GATEWAY_REFRESH("gateway:refresh", "refresh"),
+    GATEWAY_AUTH_CODE_USED("gateway:authcode:used", "used");
 
     private final String key;
 
@@ -0,0 +1,35 @@
+package com.ch.cloud.gateway.pojo;
+
+import lombok.Getter;
+
+/**
+ * 请求权限分类，按优先级从高到低排列
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Getter
+public enum PermissionClass {
+    /**
+     * 白名单，不需要任何认证
+     */
+    WHITE(CacheType.PERMISSIONS_WHITE_LIST),
+    /**
+     * 临时授权码
+     */
+    TEMP(CacheType.PERMISSIONS_TEMP_LIST),
+    /**
+     * 只需要登录
+     */
+    LOGIN(CacheType.PERMISSIONS_LOGIN_LIST),
+    /**
+     * 需要角色权限
+     */
+    ROLE(CacheType.PERMISSIONS_AUTH_LIST);
+
+    private final CacheType cacheType;
+
+    PermissionClass(CacheType cacheType) {
+        this.cacheType = cacheType;
+    }
+}
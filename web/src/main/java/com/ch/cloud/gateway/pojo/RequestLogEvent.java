@@ -0,0 +1,28 @@
+package com.ch.cloud.gateway.pojo;
+
+import lombok.Getter;
+
+/**
+ * 待发送的请求日志
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Getter
+public class RequestLogEvent {
+
+    /**
+     * 消息tag（用户名），没有时为空字符串
+     */
+    private final String tag;
+
+    /**
+     * 日志内容（UTF-8）
+     */
+    private final byte[] body;
+
+    public RequestLogEvent(String tag, byte[] body) {
+        this.tag = tag == null ? "" : tag;
+        this.body = body;
+    }
+}
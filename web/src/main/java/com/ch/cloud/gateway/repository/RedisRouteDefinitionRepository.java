@@ -1,60 +1,368 @@
 package com.ch.cloud.gateway.repository;
 
 import com.alibaba.fastjson2.JSON;
+import com.ch.cloud.gateway.utils.SingleFlight;
+import lombok.extern.log4j.Log4j2;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RBatch;
+import org.redisson.api.RMap;
+import org.redisson.api.RMapAsync;
+import org.redisson.api.RSet;
+import org.redisson.api.RSetAsync;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 import org.springframework.cloud.gateway.route.RouteDefinition;
 import org.springframework.cloud.gateway.route.RouteDefinitionRepository;
 import org.springframework.cloud.gateway.support.NotFoundException;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.util.DigestUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * decs:
+ * decs: Redis路由存储
+ * <p>
+ * 路由JSON保存在 {@link #GATEWAY_ROUTES}，每个路由JSON的摘要保存在 {@link #GATEWAY_ROUTES_STAMPS}，
+ * 每次保存、删除在同一个事务中递增版本号 {@link #GATEWAY_ROUTES_VERSION}；
+ * 这些key使用相同的hash tag，集群模式下同样可以在一个事务中写入。
+ * 本地保存不可变的路由快照，刷新路由时只读取版本号，版本变化后比较摘要，只读取并解析变化的路由；
+ * 读取快照不加锁，新快照构建完成后整体替换，并发刷新合并为一次加载。
  *
  * @author 01370603
  * @since2019/12/20
  */
+@Log4j2
 @Repository
 public class RedisRouteDefinitionRepository implements RouteDefinitionRepository {
 
-    public static final String GATEWAY_ROUTES = "gateway:routes";
+    /**
+     * 路由相关的key使用相同的hash tag，在Redis集群中位于同一个slot，可以在一个事务中写入
+     */
+    public static final String GATEWAY_ROUTES = "gateway:{routes}";
     public static final String GATEWAY_ROUTES_DATA = "gateway:routes:data:";
     public static final String GATEWAY_ROUTES_KEYS = "gateway:routes:keys";
+    public static final String GATEWAY_ROUTES_STAMPS = "gateway:{routes}:stamps";
+    public static final String GATEWAY_ROUTES_VERSION = "gateway:{routes}:version";
+    public static final String GATEWAY_ROUTES_CONFIGURED = "gateway:{routes}:configured";
+
+    /**
+     * 旧版本的路由key，启动时迁移到 {@link #GATEWAY_ROUTES}，保留原数据以便回滚
+     */
+    public static final String LEGACY_GATEWAY_ROUTES = "gateway:routes";
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private RedissonClient redissonClient;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private final SingleFlight<String, Snapshot> refreshing = new SingleFlight<>();
+
+    /**
+     * 新的路由key不存在时，从旧版本的路由key一次性复制路由，摘要在首次加载时补全
+     */
+    @PostConstruct
+    public void migrate() {
+        try {
+            RMap<String, String> legacy = redissonClient.getMap(LEGACY_GATEWAY_ROUTES, StringCodec.INSTANCE);
+            if (routeMap().isExists() || !legacy.isExists()) {
+                return;
+            }
+            Map<String, String> routes = legacy.readAllMap();
+            routeMap().putAll(routes);
+            log.info("路由已从 {} 迁移到 {}，路由数: {}", LEGACY_GATEWAY_ROUTES, GATEWAY_ROUTES, routes.size());
+        } catch (Exception e) {
+            log.error("迁移路由失败: {}", LEGACY_GATEWAY_ROUTES, e);
+        }
+    }
 
     @Override
     public Flux<RouteDefinition> getRouteDefinitions() {
-        List<RouteDefinition> routeDefinitions = new ArrayList<>();
-        stringRedisTemplate.opsForHash().values(GATEWAY_ROUTES)
-                .forEach(routeDefinition -> routeDefinitions.add(JSON.parseObject(routeDefinition.toString(), RouteDefinition.class)));
-        return Flux.fromIterable(routeDefinitions);
+        return refresh().flatMapIterable(Snapshot::getRoutes);
+    }
+
+    /**
+     * 按版本号刷新本地路由快照，读取Redis失败时使用当前快照
+     */
+    public Mono<Snapshot> refresh() {
+        return refreshing.execute(GATEWAY_ROUTES, this::loadIfChanged).onErrorResume(e -> {
+            log.error("加载路由失败，使用本地路由: {}", snapshot.getRoutes().size(), e);
+            return Mono.just(snapshot);
+        });
+    }
+
+    private Mono<Snapshot> loadIfChanged() {
+        Snapshot current = snapshot;
+        return Mono.fromCompletionStage(() -> versionCounter().getAsync()).flatMap(version -> {
+            if (current.version == version) {
+                return Mono.just(current);
+            }
+            Mono<Snapshot> next = current == Snapshot.EMPTY ? loadAll(version) : loadChanged(current, version);
+            return next.doOnNext(loaded -> {
+                snapshot = loaded;
+                log.info("路由已刷新，版本: {}，路由数: {}", version, loaded.getRoutes().size());
+            });
+        });
+    }
+
+    /**
+     * 首次加载：读取所有路由，补全缺少的摘要（兼容未保存摘要的旧数据）
+     */
+    private Mono<Snapshot> loadAll(long version) {
+        return Mono.fromCompletionStage(() -> routeMap().readAllMapAsync()).flatMap(routes -> {
+            Map<String, String> stamps = new HashMap<>(routes.size());
+            routes.forEach((id, json) -> stamps.put(id, stamp(json)));
+            Snapshot loaded = Snapshot.EMPTY.next(version, stamps, routes);
+            if (stamps.isEmpty()) {
+                return Mono.just(loaded);
+            }
+            // 只补全不存在的摘要，不覆盖并发保存的新摘要
+            RBatch batch = redissonClient.createBatch();
+            stamps.forEach((id, stamp) -> batch.getMap(GATEWAY_ROUTES_STAMPS, StringCodec.INSTANCE)
+                    .fastPutIfAbsentAsync(id, stamp));
+            return Mono.fromCompletionStage(batch::executeAsync).thenReturn(loaded);
+        });
+    }
 
+    /**
+     * 增量加载：比较摘要，只读取并解析新增、修改的路由，删除的路由直接移除
+     */
+    private Mono<Snapshot> loadChanged(Snapshot current, long version) {
+        return Mono.fromCompletionStage(() -> stampMap().readAllMapAsync()).flatMap(stamps -> {
+            Set<String> changed = new HashSet<>();
+            stamps.forEach((id, stamp) -> {
+                if (!current.isSame(id, stamp)) {
+                    changed.add(id);
+                }
+            });
+            if (changed.isEmpty()) {
+                return Mono.just(current.next(version, stamps, Collections.emptyMap()));
+            }
+            return Mono.fromCompletionStage(() -> routeMap().getAllAsync(changed))
+                    .map(routes -> current.next(version, stamps, routes));
+        });
     }
 
     @Override
     public Mono<Void> save(Mono<RouteDefinition> route) {
         return route.flatMap(routeDefinition -> {
-            stringRedisTemplate.opsForHash().put(GATEWAY_ROUTES, routeDefinition.getId(),
-                    JSON.toJSONString(routeDefinition));
-            return Mono.empty();
+            String json = JSON.toJSONString(routeDefinition);
+            RBatch batch = createBatch();
+            batch.getMap(GATEWAY_ROUTES, StringCodec.INSTANCE).fastPutAsync(routeDefinition.getId(), json);
+            batch.getMap(GATEWAY_ROUTES_STAMPS, StringCodec.INSTANCE)
+                    .fastPutAsync(routeDefinition.getId(), stamp(json));
+            batch.getAtomicLong(GATEWAY_ROUTES_VERSION).incrementAndGetAsync();
+            return Mono.fromCompletionStage(batch::executeAsync).then();
         });
     }
 
     @Override
     public Mono<Void> delete(Mono<String> routeIds) {
         return routeIds.flatMap(id -> {
-            if (stringRedisTemplate.opsForHash().hasKey(GATEWAY_ROUTES, id)) {
-                stringRedisTemplate.opsForHash().delete(GATEWAY_ROUTES, id);
-                return Mono.empty();
+            RBatch batch = createBatch();
+            batch.getMap(GATEWAY_ROUTES, StringCodec.INSTANCE).fastRemoveAsync(id);
+            batch.getMap(GATEWAY_ROUTES_STAMPS, StringCodec.INSTANCE).fastRemoveAsync(id);
+            batch.getAtomicLong(GATEWAY_ROUTES_VERSION).incrementAndGetAsync();
+            return Mono.fromCompletionStage(batch::executeAsync).flatMap(result -> {
+                if (((Number) result.getResponses().get(0)).longValue() > 0) {
+                    return Mono.empty();
+                }
+                return Mono.error(new NotFoundException("路由文件没有找到: " + id));
+            });
+        });
+    }
+
+    /**
+     * 按配置批量更新路由：与Redis中的摘要比较，只写入新增、修改的路由，删除上次配置中有、本次配置中没有的路由，
+     * 并在同一个事务中递增一次版本号、保存本次配置的路由ID。
+     * 上次配置的路由ID保存在 {@link #GATEWAY_ROUTES_CONFIGURED}，节点重启期间从配置中移除的路由同样会被删除，
+     * 通过接口单独添加的路由不受影响
+     *
+     * @param definitions 配置中的全部路由
+     * @return 路由是否有变化，没有变化时不写入路由
+     */
+    public Mono<Boolean> update(Collection<RouteDefinition> definitions) {
+        Set<String> ids = new LinkedHashSet<>();
+        definitions.forEach(definition -> ids.add(definition.getId()));
+        return Mono.zip(Mono.fromCompletionStage(() -> stampMap().readAllMapAsync()),
+                Mono.fromCompletionStage(() -> configuredSet().readAllAsync())).flatMap(tuple -> {
+            Map<String, String> stamps = tuple.getT1();
+            Set<String> configured = tuple.getT2();
+            Map<String, String> changed = new LinkedHashMap<>();
+            for (RouteDefinition definition : definitions) {
+                String json = JSON.toJSONString(definition);
+                if (!stamp(json).equals(stamps.get(definition.getId()))) {
+                    changed.put(definition.getId(), json);
+                }
             }
-            return Mono.defer(() -> Mono.error(new NotFoundException("路由文件没有找到: " + routeIds)));
+            List<String> removed = new ArrayList<>();
+            for (String id : configured) {
+                if (!ids.contains(id) && stamps.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+            boolean routesChanged = !changed.isEmpty() || !removed.isEmpty();
+            boolean idsChanged = !configured.equals(ids);
+            if (!routesChanged && !idsChanged) {
+                return Mono.just(false);
+            }
+            RBatch batch = createBatch();
+            RMapAsync<String, String> routes = batch.getMap(GATEWAY_ROUTES, StringCodec.INSTANCE);
+            RMapAsync<String, String> digests = batch.getMap(GATEWAY_ROUTES_STAMPS, StringCodec.INSTANCE);
+            changed.forEach((id, json) -> {
+                routes.fastPutAsync(id, json);
+                digests.fastPutAsync(id, stamp(json));
+            });
+            if (!removed.isEmpty()) {
+                String[] removedIds = removed.toArray(new String[0]);
+                routes.fastRemoveAsync(removedIds);
+                digests.fastRemoveAsync(removedIds);
+            }
+            if (idsChanged) {
+                RSetAsync<String> configuredIds = batch.getSet(GATEWAY_ROUTES_CONFIGURED, StringCodec.INSTANCE);
+                configuredIds.deleteAsync();
+                if (!ids.isEmpty()) {
+                    configuredIds.addAllAsync(ids);
+                }
+            }
+            if (routesChanged) {
+                batch.getAtomicLong(GATEWAY_ROUTES_VERSION).incrementAndGetAsync();
+                log.info("更新路由，新增或修改: {}，删除: {}", changed.keySet(), removed);
+            }
+            return Mono.fromCompletionStage(batch::executeAsync).thenReturn(routesChanged);
         });
     }
+
+    /**
+     * 本地路由快照是否落后于Redis中的版本号，其他节点写入的路由变化同样需要刷新
+     */
+    public Mono<Boolean> isStale() {
+        return Mono.fromCompletionStage(() -> versionCounter().getAsync())
+                .map(version -> version != snapshot.getVersion());
+    }
+
+    /**
+     * 当前路由快照（不访问Redis）
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private RBatch createBatch() {
+        return redissonClient.createBatch(BatchOptions.defaults()
+                .executionMode(BatchOptions.ExecutionMode.IN_MEMORY_ATOMIC));
+    }
+
+    private RMap<String, String> routeMap() {
+        return redissonClient.getMap(GATEWAY_ROUTES, StringCodec.INSTANCE);
+    }
+
+    private RMap<String, String> stampMap() {
+        return redissonClient.getMap(GATEWAY_ROUTES_STAMPS, StringCodec.INSTANCE);
+    }
+
+    private RSet<String> configuredSet() {
+        return redissonClient.getSet(GATEWAY_ROUTES_CONFIGURED, StringCodec.INSTANCE);
+    }
+
+    private RAtomicLong versionCounter() {
+        return redissonClient.getAtomicLong(GATEWAY_ROUTES_VERSION);
+    }
+
+    private static String stamp(String json) {
+        return DigestUtils.md5DigestAsHex(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 不可变的路由快照
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(-1, Collections.emptyMap(), Collections.emptyMap());
+
+        private final long version;
+
+        /**
+         * 路由ID -> 路由JSON摘要
+         */
+        private final Map<String, String> stamps;
+
+        private final Map<String, RouteDefinition> routes;
+
+        private final List<RouteDefinition> routeList;
+
+        private Snapshot(long version, Map<String, String> stamps, Map<String, RouteDefinition> routes) {
+            this.version = version;
+            this.stamps = stamps;
+            this.routes = routes;
+            this.routeList = Collections.unmodifiableList(new ArrayList<>(routes.values()));
+        }
+
+        boolean isSame(String id, String stamp) {
+            return stamp.equals(stamps.get(id)) && routes.containsKey(id);
+        }
+
+        /**
+         * 以最新的摘要构建新快照：变化的路由使用新读取的JSON，其余沿用当前快照
+         *
+         * @param stamps  Redis中所有路由的摘要
+         * @param changed 变化的路由JSON
+         */
+        Snapshot next(long version, Map<String, String> stamps, Map<String, String> changed) {
+            Map<String, String> nextStamps = new HashMap<>(stamps.size());
+            Map<String, RouteDefinition> nextRoutes = new LinkedHashMap<>(stamps.size());
+            stamps.forEach((id, digest) -> {
+                String json = changed.get(id);
+                RouteDefinition definition;
+                if (json != null) {
+                    definition = parse(id, json);
+                    digest = stamp(json);
+                } else {
+                    // 未读取到的变化路由已被并发删除
+                    definition = isSame(id, digest) ? routes.get(id) : null;
+                }
+                if (definition != null) {
+                    nextStamps.put(id, digest);
+                    nextRoutes.put(id, definition);
+                }
+            });
+            return new Snapshot(version, Collections.unmodifiableMap(nextStamps),
+                    Collections.unmodifiableMap(nextRoutes));
+        }
+
+        private static RouteDefinition parse(String id, String json) {
+            try {
+                return JSON.parseObject(json, RouteDefinition.class);
+            } catch (Exception e) {
+                log.error("路由解析失败: {} {}", id, json, e);
+                return null;
+            }
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<RouteDefinition> getRoutes() {
+            return routeList;
+        }
+
+        public RouteDefinition getRoute(String id) {
+            return routes.get(id);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+package com.ch.cloud.gateway.service;
+
+import com.ch.cloud.gateway.conf.PermissionCacheConfig;
+import com.ch.cloud.gateway.pojo.AuthCodeGrant;
+import com.ch.cloud.gateway.pojo.CacheType;
+import com.ch.cloud.gateway.utils.SingleFlight;
+import com.ch.cloud.gateway.utils.UserAuthUtils;
+import com.ch.e.PubError;
+import com.ch.result.Result;
+import com.ch.utils.EncryptUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 临时授权码服务
+ * <p>
+ * 授权码编译成 {@link AuthCodeGrant} 后本地缓存 authCodeTtl 秒，用户权限中心确认不存在的授权码缓存 authCodeMissingTtl 秒，
+ * 查询失败不缓存；同一个授权码并发加载合并为一次。
+ * 有使用次数限制的授权码在Redis中原子计数，首次使用时以用户权限中心记录的已使用次数为初始值，计数保留到授权码过期。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Service
+@Slf4j
+public class AuthCodeService {
+
+    /**
+     * 计数不存在时以 ARGV[1] 为初始值，未达到 ARGV[2] 时加一并返回1，否则返回0；ARGV[3] 为计数保留时间（毫秒）
+     */
+    private static final String USE_SCRIPT = "local used = tonumber(redis.call('get', KEYS[1])) or tonumber(ARGV[1])\n"
+            + "if used >= tonumber(ARGV[2]) then\n"
+            + "    return 0\n"
+            + "end\n"
+            + "redis.call('set', KEYS[1], used + 1, 'PX', ARGV[3])\n"
+            + "return 1";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private PermissionCacheConfig config;
+
+    private Cache<String, AuthCodeGrant> grants;
+
+    /**
+     * 用户权限中心确认不存在的授权码
+     */
+    private Cache<String, Boolean> missing;
+
+    private final SingleFlight<String, Result<AuthCodeGrant>> loads = new SingleFlight<>();
+
+    @PostConstruct
+    public void init() {
+        grants = CacheBuilder.newBuilder().maximumSize(config.getAuthCodeMaxSize())
+                .expireAfterWrite(config.getAuthCodeTtl(), TimeUnit.SECONDS).build();
+        missing = CacheBuilder.newBuilder().maximumSize(config.getAuthCodeMaxSize())
+                .expireAfterWrite(config.getAuthCodeMissingTtl(), TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * 获取授权码
+     *
+     * @return 授权码；不存在、查询失败时为失败结果
+     */
+    public Mono<Result<AuthCodeGrant>> getGrant(String code) {
+        AuthCodeGrant cached = grants.getIfPresent(code);
+        if (cached != null) {
+            Result<AuthCodeGrant> found = Result.success(cached);
+            return Mono.just(found);
+        }
+        if (missing.getIfPresent(code) != null) {
+            return Mono.just(notFound());
+        }
+        return loads.execute(code, () -> load(code));
+    }
+
+    /**
+     * 从用户权限中心加载：存在、确认不存在时缓存，查询失败时不缓存，下一次请求重新查询
+     */
+    private Mono<Result<AuthCodeGrant>> load(String code) {
+        return UserAuthUtils.getAuthCodeInfo(code).map(res -> {
+            if (!res.isSuccess()) {
+                log.warn("授权码查询失败: {}，{}", code, res.getMessage());
+                Result<AuthCodeGrant> failed = Result.error(PubError.CONNECT, "授权码校验失败，请稍后重试");
+                return failed;
+            }
+            if (res.get() == null) {
+                missing.put(code, Boolean.TRUE);
+                return notFound();
+            }
+            AuthCodeGrant grant = AuthCodeGrant.compile(code, res.get());
+            grants.put(code, grant);
+            Result<AuthCodeGrant> found = Result.success(grant);
+            return found;
+        }).onErrorResume(e -> {
+            log.error("授权码加载失败: {}", code, e);
+            Result<AuthCodeGrant> failed = Result.error(PubError.INVALID, "授权码校验异常");
+            return Mono.just(failed);
+        });
+    }
+
+    private static Result<AuthCodeGrant> notFound() {
+        Result<AuthCodeGrant> result = Result.error(PubError.INVALID, "授权码不存在");
+        return result;
+    }
+
+    /**
+     * 使用一次授权码，超出最大使用次数时返回false；Redis不可用时按加载时的已使用次数判断
+     */
+    public Mono<Boolean> tryUse(AuthCodeGrant grant) {
+        if (!grant.isLimited()) {
+            return Mono.just(true);
+        }
+        long now = System.currentTimeMillis();
+        long ttl = grant.getExpireAt() > now ? grant.getExpireAt() - now
+                : TimeUnit.SECONDS.toMillis(config.getAuthCodeUsageTtl());
+        RScript script = redissonClient.getScript(StringCodec.INSTANCE);
+        return Mono.<Long>fromCompletionStage(() -> script.evalAsync(RScript.Mode.READ_WRITE, USE_SCRIPT,
+                RScript.ReturnType.INTEGER,
+                Collections.singletonList(CacheType.GATEWAY_AUTH_CODE_USED.key(EncryptUtils.md5(grant.getCode()))),
+                grant.getUsedCount(), grant.getMaxUses(), ttl))
+                .map(used -> used > 0)
+                .onErrorResume(e -> {
+                    log.error("授权码使用次数计数失败: {}", grant.getCode(), e);
+                    return Mono.just(grant.getUsedCount() < grant.getMaxUses());
+                });
+    }
+}
@@ -3,23 +3,46 @@ package com.ch.cloud.gateway.service;
 import com.ch.Constants;
 import com.ch.cloud.gateway.conf.CookieConfig;
 import com.ch.cloud.gateway.pojo.CacheType;
+import com.ch.cloud.gateway.utils.SingleFlight;
 import com.ch.cloud.gateway.utils.UserAuthUtils;
 import com.ch.cloud.sso.pojo.UserInfo;
+import com.ch.utils.CommonUtils;
+import com.ch.utils.EncryptUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
 import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 import org.redisson.codec.JsonJacksonCodec;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseCookie;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Cookie刷新服务
+ * <p>
+ * Token即将过期时请求只登记到待续期队列（同一个token只登记一次，队列有上限），
+ * 由后台线程按固定间隔批量调用单点登录系统续期，并用一次批量命令延长Redis中用户信息的有效期；
+ * 续期成功后才刷新Cookie，并在本地记录下次需要检查的时间，期间不再读取Redis。
+ * Token已过期时用refresh token换取新token，同一个refresh token在各网关节点间只换取一次。
  *
  * @author zhimi
  * @since 2024-1-1
@@ -28,58 +51,172 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class CookieRefreshService {
 
+    /**
+     * 本地记录下次检查时间的最大token数
+     */
+    private static final long MAX_TRACKED_TOKENS = 100000;
+
+    /**
+     * Redis中正在换取token的占位值
+     */
+    private static final String REFRESHING = "-";
+
+    /**
+     * 等待其它节点换取token时的轮询间隔（毫秒）
+     */
+    private static final long REFRESH_POLL_INTERVAL = 100;
+
     @Autowired
     private CookieConfig cookieConfig;
 
     @Resource
-    private org.redisson.api.RedissonClient redissonClient;
+    private RedissonClient redissonClient;
+
+    /**
+     * token摘要 -> token，待续期
+     */
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    /**
+     * token摘要 -> 下次需要检查是否续期的时间
+     */
+    private Cache<String, Long> nextCheck;
+
+    /**
+     * 已续期、还未刷新Cookie的token摘要
+     */
+    private Cache<String, Boolean> renewed;
+
+    private ScheduledExecutorService renewer;
+
+    /**
+     * refresh token摘要 -> 换取的新token
+     */
+    private Cache<String, String> refreshResults;
+
+    private final SingleFlight<String, String> refreshing = new SingleFlight<>();
+
+    @PostConstruct
+    public void init() {
+        nextCheck = CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_TOKENS)
+                .expireAfterWrite(cookieConfig.getMaxAge(), TimeUnit.SECONDS).build();
+        renewed = CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_TOKENS)
+                .expireAfterWrite(cookieConfig.getRefreshThreshold(), TimeUnit.SECONDS).build();
+        refreshResults = CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_TOKENS)
+                .expireAfterWrite(cookieConfig.getRefreshResultTtl(), TimeUnit.SECONDS).build();
+        if (!cookieConfig.isAutoRefresh()) {
+            return;
+        }
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cookie-token-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewer.scheduleWithFixedDelay(this::renewPending, cookieConfig.getRenewInterval(),
+                cookieConfig.getRenewInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (renewer != null) {
+            renewer.shutdownNow();
+        }
+    }
 
     /**
      * 检查Cookie是否需要刷新
+     * <p>
+     * token即将过期时登记续期（不等待续期完成）并返回false；续期成功后的下一个请求返回true，由调用方刷新Cookie，
+     * 续期失败时不刷新Cookie，Cookie与Redis中的有效期保持一致
      *
      * @param token 用户token
      * @return 是否需要刷新
      */
-    public boolean needRefreshCookie(String token) {
+    public Mono<Boolean> needRefreshCookie(String token) {
         if (!cookieConfig.isAutoRefresh()) {
-            return false;
+            return Mono.just(false);
+        }
+        String md5 = EncryptUtils.md5(token);
+        if (renewed.asMap().remove(md5) != null) {
+            return Mono.just(true);
+        }
+        if (pending.containsKey(md5)) {
+            return Mono.just(false);
+        }
+        Long checkAt = nextCheck.getIfPresent(md5);
+        if (checkAt != null && System.currentTimeMillis() < checkAt) {
+            return Mono.just(false);
         }
 
-        try {
-            // 从Redis中获取用户信息
-            String md5 = com.ch.utils.EncryptUtils.md5(token);
-            RBucket<UserInfo> userBucket = redissonClient.getBucket(CacheType.GATEWAY_TOKEN.key(md5),
-                    JsonJacksonCodec.INSTANCE);
-            if (!userBucket.isExists()) {
+        // 以Redis中用户信息的剩余有效期为准，续期（包括其它节点的续期）后即可看到新的有效期
+        RBucket<UserInfo> userBucket = redissonClient.getBucket(CacheType.GATEWAY_TOKEN.key(md5),
+                JsonJacksonCodec.INSTANCE);
+        return Mono.fromCompletionStage(userBucket::remainTimeToLiveAsync).map(ttl -> {
+            if (ttl < 0) {
+                // 用户信息不存在或没有过期时间
                 return false;
             }
-
-            UserInfo user = userBucket.get();
-            if (user == null) {
+            // 如果token在阈值时间内过期，则需要续期
+            long now = System.currentTimeMillis();
+            long refreshAt = now + ttl - cookieConfig.getRefreshThreshold() * 1000L;
+            if (now < refreshAt) {
+                nextCheck.put(md5, refreshAt);
                 return false;
             }
+            if (cookieConfig.isEnableLog()) {
+                log.debug("Cookie即将过期，剩余时间: {}秒", ttl / 1000);
+            }
+            if (pending.size() < cookieConfig.getRenewMaxPending()) {
+                pending.putIfAbsent(md5, token);
+            } else {
+                log.debug("待续期token已达上限: {}，稍后重试", cookieConfig.getRenewMaxPending());
+            }
+            return false;
+        }).defaultIfEmpty(false).onErrorResume(e -> {
+            log.error("检查Cookie刷新状态时发生错误", e);
+            return Mono.just(false);
+        });
+    }
 
-            // 计算剩余时间
-            long currentTime = System.currentTimeMillis();
-            long expireTime = user.getExpireAt();
-            long timeToExpire = expireTime - currentTime;
-
-            // 如果token在阈值时间内过期，则需要刷新
-            boolean needRefresh = timeToExpire <= cookieConfig.getRefreshThreshold() * 1000L;
-
-            if (needRefresh && cookieConfig.isEnableLog()) {
-                log.debug("Cookie即将过期，剩余时间: {}秒", timeToExpire / 1000);
+    /**
+     * 批量续期：并发调用单点登录系统，续期成功的token用一次批量命令延长Redis有效期
+     */
+    private void renewPending() {
+        try {
+            Map<String, String> batch = new HashMap<>();
+            Iterator<Map.Entry<String, String>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < cookieConfig.getRenewBatchSize()) {
+                Map.Entry<String, String> entry = it.next();
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            if (batch.isEmpty()) {
+                return;
             }
-            if (needRefresh && UserAuthUtils.renewToken(token)) {
-                // 更新Redis中的用户信息 续期30分钟
-                Duration duration = Duration.of(currentTime + cookieConfig.getMaxAge(), ChronoUnit.MILLIS);
-                userBucket.expire(duration);
-                return true;
+            List<String> renewedTokens = Flux.fromIterable(batch.entrySet())
+                    .flatMap(entry -> UserAuthUtils.renewToken(entry.getValue()).filter(Boolean::booleanValue)
+                            .map(ok -> entry.getKey()), Math.max(1, cookieConfig.getRenewConcurrency()))
+                    .collectList().block();
+            if (renewedTokens != null && !renewedTokens.isEmpty()) {
+                Duration duration = Duration.ofSeconds(cookieConfig.getMaxAge());
+                RBatch expire = redissonClient.createBatch();
+                renewedTokens.forEach(md5 -> expire.getBucket(CacheType.GATEWAY_TOKEN.key(md5),
+                        JsonJacksonCodec.INSTANCE).expireAsync(duration));
+                expire.execute();
+                long checkAt = System.currentTimeMillis()
+                        + (cookieConfig.getMaxAge() - cookieConfig.getRefreshThreshold()) * 1000L;
+                renewedTokens.forEach(md5 -> {
+                    nextCheck.put(md5, checkAt);
+                    renewed.put(md5, Boolean.TRUE);
+                });
+            }
+            // 续期失败的token由下一次请求重新登记
+            batch.keySet().forEach(pending::remove);
+            if (cookieConfig.isEnableLog()) {
+                log.debug("Token批量续期: {}，成功: {}", batch.size(), renewedTokens == null ? 0 : renewedTokens.size());
             }
         } catch (Exception e) {
-            log.error("检查Cookie刷新状态时发生错误", e);
+            log.error("Token批量续期失败", e);
         }
-        return false;
     }
 
     /**
@@ -143,12 +280,68 @@ public class CookieRefreshService {
         return cookieConfig;
     }
 
-    public String refreshToken(String token, String refreshToken) {
+    /**
+     * 用refresh token换取新token
+     * <p>
+     * 同一个refresh token同时只换取一次：本节点并发请求合并，跨节点通过Redis占位，其它节点等待并使用换取结果；
+     * 换取结果在 refreshResultTtl 内共享，避免同一浏览器的并行请求各自换取导致token反复失效。
+     *
+     * @param token        已过期的token
+     * @param refreshToken refresh token
+     * @return 新token，换取失败时为空
+     */
+    public Mono<String> refreshToken(String token, String refreshToken) {
 
         if (!cookieConfig.isAutoRefresh()) {
-            return null;
+            return Mono.empty();
+        }
+        if (CommonUtils.isEmpty(refreshToken)) {
+            return UserAuthUtils.refreshToken(token, refreshToken);
+        }
+        String md5 = EncryptUtils.md5(refreshToken);
+        String refreshed = refreshResults.getIfPresent(md5);
+        if (refreshed != null) {
+            return Mono.just(refreshed);
         }
+        return refreshing.execute(md5, () -> exchangeToken(md5, token, refreshToken))
+                .doOnNext(newToken -> refreshResults.put(md5, newToken));
+    }
+
+    private Mono<String> exchangeToken(String md5, String token, String refreshToken) {
+        RBucket<String> bucket = redissonClient.getBucket(CacheType.GATEWAY_REFRESH.key(md5), StringCodec.INSTANCE);
+        long wait = cookieConfig.getRefreshWait();
+        return Mono.fromCompletionStage(() -> bucket.trySetAsync(REFRESHING, wait, TimeUnit.MILLISECONDS))
+                .onErrorResume(e -> {
+                    log.error("换取token占位失败，直接换取", e);
+                    return Mono.just(true);
+                })
+                .flatMap(acquired -> acquired ? exchangeAndShare(bucket, token, refreshToken)
+                        : awaitShared(bucket, wait).switchIfEmpty(UserAuthUtils.refreshToken(token, refreshToken)));
+    }
 
-        return UserAuthUtils.refreshToken(token,refreshToken);
+    private Mono<String> exchangeAndShare(RBucket<String> bucket, String token, String refreshToken) {
+        return UserAuthUtils.refreshToken(token, refreshToken).filter(CommonUtils::isNotEmpty)
+                .flatMap(newToken -> Mono.fromCompletionStage(() -> bucket.setAsync(newToken,
+                        cookieConfig.getRefreshResultTtl(), TimeUnit.SECONDS)).onErrorResume(e -> {
+                    log.error("共享换取的token失败", e);
+                    return Mono.empty();
+                }).thenReturn(newToken))
+                // 换取失败时删除占位，其它节点不再等待
+                .switchIfEmpty(Mono.fromCompletionStage(bucket::deleteAsync).onErrorResume(e -> Mono.empty())
+                        .then(Mono.empty()));
+    }
+
+    /**
+     * 等待其它节点的换取结果，超时、换取失败时为空
+     */
+    private Mono<String> awaitShared(RBucket<String> bucket, long wait) {
+        return Flux.interval(Duration.ZERO, Duration.ofMillis(REFRESH_POLL_INTERVAL))
+                .concatMap(i -> Mono.fromCompletionStage(bucket::getAsync).defaultIfEmpty(""))
+                .filter(value -> !REFRESHING.equals(value)).next().filter(CommonUtils::isNotEmpty)
+                .timeout(Duration.ofMillis(wait), Mono.empty())
+                .onErrorResume(e -> {
+                    log.error("等待其它节点换取token失败", e);
+                    return Mono.empty();
+                });
     }
 }
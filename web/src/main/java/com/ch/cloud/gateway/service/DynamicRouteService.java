@@ -8,21 +8,18 @@ import com.alibaba.nacos.api.config.listener.Listener;
 import com.alibaba.nacos.api.exception.NacosException;
 import com.ch.cloud.gateway.repository.RedisRouteDefinitionRepository;
 import com.ch.utils.CommonUtils;
-import com.google.common.collect.Sets;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
 import org.springframework.cloud.gateway.route.RouteDefinition;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.Resource;
+import java.time.Duration;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.Executor;
 
 /**
@@ -45,43 +42,22 @@ public class DynamicRouteService implements ApplicationEventPublisherAware {
     @Autowired
     private NacosConfigProperties nacosConfigProperties;
     
-    private Set<String> routerIds;
-    
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private static final Duration UPDATE_TIMEOUT = Duration.ofSeconds(10);
     
     @PostConstruct
     public void dynamicRouteByNacosListener() {
         try {
-            routerIds = Sets.newHashSet();
             ConfigService configService = NacosFactory.createConfigService(
                     nacosConfigProperties.assembleConfigServiceProperties());
             
-            if (CommonUtils.isEmpty(
-                    stringRedisTemplate.opsForHash().values(RedisRouteDefinitionRepository.GATEWAY_ROUTES))) {
-                String config = configService.getConfig(dataId, nacosConfigProperties.getGroup(), 5000);
-                log.info("初始化路由信息: {}", config);
-                List<RouteDefinition> gatewayRouteDefinitions = JSON.parseArray(config, RouteDefinition.class);
-                for (RouteDefinition routeDefinition : gatewayRouteDefinitions) {
-                    addRoute(routeDefinition);
-                }
-                publish();
-            }
+            String config = configService.getConfig(dataId, nacosConfigProperties.getGroup(), 5000);
+            log.info("初始化路由信息: {}", config);
+            updateRoutes(config);
             configService.addListener(dataId, nacosConfigProperties.getGroup(), new Listener() {
                 @Override
                 public void receiveConfigInfo(String configInfo) {
                     log.info("更新路由信息: {}", configInfo);
-                    clearRoute();
-                    try {
-                        List<RouteDefinition> gatewayRouteDefinitions = JSON.parseArray(configInfo,
-                                RouteDefinition.class);
-                        for (RouteDefinition routeDefinition : gatewayRouteDefinitions) {
-                            addRoute(routeDefinition);
-                        }
-                        publish();
-                    } catch (Exception e) {
-                        log.error("configService receiveConfigInfo addRoute error!", e);
-                    }
+                    updateRoutes(configInfo);
                 }
                 
                 @Override
@@ -94,20 +70,24 @@ public class DynamicRouteService implements ApplicationEventPublisherAware {
         }
     }
     
-    
-    private void clearRoute() {
-        for (String id : routerIds) {
-            this.routeDefinitionWriter.delete(Mono.just(id)).subscribe();
+    /**
+     * 与当前路由比较，只保存新增、修改的路由并删除已从配置中移除的路由（一次原子写入）；
+     * 上次配置的路由ID保存在Redis中，节点重启期间从配置中移除的路由同样会被删除。
+     * 每个节点都会收到配置推送，只有一个节点写入路由，因此按本地快照是否落后于Redis版本号决定是否刷新路由
+     */
+    private synchronized void updateRoutes(String config) {
+        if (CommonUtils.isEmpty(config)) {
+            return;
         }
-        routerIds.clear();
-    }
-    
-    private void addRoute(RouteDefinition definition) {
         try {
-            routeDefinitionWriter.save(Mono.just(definition)).subscribe();
-            routerIds.add(definition.getId());
+            List<RouteDefinition> gatewayRouteDefinitions = JSON.parseArray(config, RouteDefinition.class);
+            Boolean stale = routeDefinitionWriter.update(gatewayRouteDefinitions)
+                    .then(routeDefinitionWriter.isStale()).block(UPDATE_TIMEOUT);
+            if (Boolean.TRUE.equals(stale)) {
+                publish();
+            }
         } catch (Exception e) {
-            log.error("addRoute error!", e);
+            log.error("configService receiveConfigInfo updateRoutes error!", e);
         }
     }
     
@@ -122,14 +102,12 @@ public class DynamicRouteService implements ApplicationEventPublisherAware {
      * @return success
      */
     public String add(RouteDefinition definition) {
-        routeDefinitionWriter.save(Mono.just(definition)).subscribe();
-        publish();
+        routeDefinitionWriter.save(Mono.just(definition)).doOnSuccess(v -> publish()).subscribe();
         return "success";
     }
     
     public void deleteRoute(String routeId) {
-        routeDefinitionWriter.delete(Mono.just(routeId)).subscribe();
-        publish();
+        routeDefinitionWriter.delete(Mono.just(routeId)).doOnSuccess(v -> publish()).subscribe();
     }
     
     @Override
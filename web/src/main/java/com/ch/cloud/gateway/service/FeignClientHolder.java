@@ -14,14 +14,19 @@ import com.ch.result.Result;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.concurrent.Future;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
 
 /**
- * 描述：
+ * 描述：远程服务（单点登录、用户权限）响应式客户端
+ * <p>
+ * Feign调用是阻塞的，统一放到独立的有界线程池中执行，对外返回 {@link Mono}，
+ * 过滤器只组合结果，不会在 Netty 事件循环线程上等待远程响应。
  *
  * @author Zhimin.Ma
  * @since 2022/5/25
@@ -55,95 +60,101 @@ public class FeignClientHolder {
     private UpmsAuthCodeClient upmsAuthCodeClient;
 
     /**
-     * 这里必须在异步线程中执行，执行结果返回Future
+     * 远程调用专用线程池，与其它阻塞任务隔离，远程服务变慢时不影响网关其它功能
+     */
+    private final Scheduler scheduler = Schedulers.newBoundedElastic(
+            Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "feign-client");
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    private <T> Mono<T> call(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(scheduler);
+    }
+
+    /**
+     * 获取登录用户信息
      *
      * @param token 登录Token
      * @return 登录用户信息
      */
-    @Async
-    public Future<Result<UserInfo>> tokenInfo(String token) {
-        log.info("开始获取 user info ...");
-        Result<UserInfo> loginResult = ssoLoginClient.info(token);
-        if (!loginResult.isEmpty()) {
-            Result<UserInfo> userResult = ssoUserClient.info(loginResult.get().getUsername());
-            if (!userResult.isEmpty()) {
-                loginResult.get().setUserId(userResult.get().getUserId());
-                loginResult.get().setRoleId(userResult.get().getRoleId());
-                loginResult.get().setTenantId(userResult.get().getTenantId());
+    public Mono<Result<UserInfo>> tokenInfo(String token) {
+        return call(() -> {
+            log.info("开始获取 user info ...");
+            Result<UserInfo> loginResult = ssoLoginClient.info(token);
+            if (!loginResult.isEmpty()) {
+                Result<UserInfo> userResult = ssoUserClient.info(loginResult.get().getUsername());
+                if (!userResult.isEmpty()) {
+                    loginResult.get().setUserId(userResult.get().getUserId());
+                    loginResult.get().setRoleId(userResult.get().getRoleId());
+                    loginResult.get().setTenantId(userResult.get().getTenantId());
+                } else {
+                    log.error("获取 user info 错误！{}", userResult.getMessage());
+                    loginResult.setCode(userResult.getCode());
+                    loginResult.setMessage(userResult.getMessage());
+                }
             } else {
-                log.error("获取 user info 错误！{}", userResult.getMessage());
-                loginResult.setCode(userResult.getCode());
-                loginResult.setMessage(userResult.getMessage());
+                log.error("获取 login info 失败！{}", loginResult.getMessage());
             }
-        } else {
-            log.error("获取 login info 失败！{}", loginResult.getMessage());
-        }
-        return new AsyncResult<>(loginResult);
+            return loginResult;
+        });
     }
 
-    @Async
-    public Future<Boolean> tokenValid(String token) {
-        log.info("开始使用 tokenValid ...");
-        Result<Boolean> validResult = ssoLoginClient.validate(token);
-        return new AsyncResult<>(validResult.get());
+    public Mono<Boolean> tokenValid(String token) {
+        return call(() -> {
+            log.info("开始使用 tokenValid ...");
+            return ssoLoginClient.validate(token).get();
+        });
     }
 
-    @Async
-    public Future<Boolean> tokenRenew(String token) {
-        log.info("开始使用 tokenRenew ...");
-        Result<Boolean> renewResult = ssoLoginClient.renew(token);
-        return new AsyncResult<>(renewResult.get());
+    public Mono<Boolean> tokenRenew(String token) {
+        return call(() -> {
+            log.info("开始使用 tokenRenew ...");
+            return ssoLoginClient.renew(token).get();
+        });
     }
 
-    @Async
-    public Future<String> refreshToken(String token,String refreshToken) {
-        log.info("开始使用 refreshToken ...");
-        Result<String> result = ssoLoginClient.refresh(token, refreshToken);
-        return new AsyncResult<>(result.get());
+    public Mono<String> refreshToken(String token, String refreshToken) {
+        return call(() -> {
+            log.info("开始使用 refreshToken ...");
+            return ssoLoginClient.refresh(token, refreshToken).get();
+        });
     }
 
-    @Async
-    public Future<AuthCodePermissionDTO> authCodePermissions(String code) {
-        Result<AuthCodePermissionDTO> res = upmsAuthCodeClient.getPermission(code);
-        if (!res.isSuccess()) {
-            log.info("授权码鉴权失败{}", res.getMessage());
-        }
-        return new AsyncResult<>(res.get());
+    public Mono<Result<AuthCodePermissionDTO>> authCodePermissions(String code) {
+        return call(() -> upmsAuthCodeClient.getPermission(code));
     }
 
-    @Async
-    public Future<Result<PermissionDto>> whitelistPermissions() {
-        return new AsyncResult<>(upmsPermissionClient.whitelist());
+    public Mono<Result<PermissionDto>> whitelistPermissions() {
+        return call(() -> upmsPermissionClient.whitelist());
     }
 
-    @Async
-    public Future<Result<PermissionDto>> hiddenPermissions() {
-        return new AsyncResult<>(upmsPermissionClient.hidden());
+    public Mono<Result<PermissionDto>> hiddenPermissions() {
+        return call(() -> upmsPermissionClient.hidden());
     }
 
-    @Async
-    public Future<Result<PermissionDto>> cookiePermissions() {
-        return new AsyncResult<>(upmsPermissionClient.cookie());
+    public Mono<Result<PermissionDto>> cookiePermissions() {
+        return call(() -> upmsPermissionClient.cookie());
     }
 
-    @Async
-    public Future<Result<PermissionDto>> rolePermissions(Long roleId) {
-        return new AsyncResult<>(upmsRoleClient.findPermissionsByRoleId(roleId, null));
+    public Mono<Result<PermissionDto>> rolePermissions(Long roleId) {
+        return call(() -> upmsRoleClient.findPermissionsByRoleId(roleId, null));
     }
 
-    @Async
-    public Future<Result<PermissionDto>> tempPermissions() {
-        return new AsyncResult<>(upmsPermissionClient.authCode());
+    public Mono<Result<PermissionDto>> tempPermissions() {
+        return call(() -> upmsPermissionClient.authCode());
     }
 
-    @Async
-    public Future<RoleDto> userRole(String username, Long roleId) {
-        Result<RoleDto> result = upmsUserClient.findRolesByUsername(username);
-        if (!result.isSuccess()) {
-            log.error("获取用户角色失败{}", result.getMessage());
-            return new AsyncResult<>(null);
-        }
-        RoleDto roleDto = result.getRows().stream().filter(role -> role.getId().equals(roleId)).findFirst().orElse(null);
-        return new AsyncResult<>(roleDto);
+    public Mono<RoleDto> userRole(String username, Long roleId) {
+        return call(() -> {
+            Result<RoleDto> result = upmsUserClient.findRolesByUsername(username);
+            if (!result.isSuccess()) {
+                log.error("获取用户角色失败{}", result.getMessage());
+                return null;
+            }
+            return result.getRows().stream().filter(role -> role.getId().equals(roleId)).findFirst().orElse(null);
+        });
     }
 }
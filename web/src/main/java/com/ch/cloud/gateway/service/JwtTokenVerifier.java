@@ -0,0 +1,246 @@
+package com.ch.cloud.gateway.service;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+import com.ch.cloud.gateway.conf.JwtConfig;
+import com.ch.cloud.sso.pojo.UserInfo;
+import com.ch.e.PubError;
+import com.ch.result.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 签名token（JWS）本地校验
+ * <p>
+ * 使用配置的单点登录公钥验签，从claims中读取用户名、用户ID、角色ID、租户ID和过期时间，
+ * 并按签发时间（iat，必须存在）检查吊销记录，校验过程不访问Redis和单点登录系统。
+ * 支持 RS256/RS384/RS512、ES256/ES384/ES512。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Service
+@Slf4j
+public class JwtTokenVerifier {
+
+    @Autowired
+    private JwtConfig config;
+
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
+    private Map<String, PublicKey> publicKeys = Collections.emptyMap();
+
+    @PostConstruct
+    public void init() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        Map<String, PublicKey> keys = new HashMap<>();
+        config.getPublicKeys().forEach((kid, pem) -> keys.put(kid, parsePublicKey(pem)));
+        publicKeys = keys;
+        log.info("JWT本地校验已启用，公钥: {}", keys.keySet());
+    }
+
+    /**
+     * 是否由本地校验处理：已启用且token为JWS格式
+     */
+    public boolean supports(String token) {
+        if (!config.isEnabled() || publicKeys.isEmpty()) {
+            return false;
+        }
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        return first > 0 && last > first + 1 && last < token.length() - 1 && token.indexOf('.', first + 1) == last;
+    }
+
+    /**
+     * 校验token并解析用户信息
+     *
+     * @param token JWS格式token
+     * @return 用户信息，校验失败返回错误
+     */
+    public Result<UserInfo> verify(String token) {
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        JSONObject claims;
+        try {
+            JSONObject header = JSON.parseObject(Base64.getUrlDecoder().decode(token.substring(0, first)));
+            PublicKey key = header == null ? null : selectKey(header.getString("kid"));
+            if (key == null) {
+                return invalid("Token签名公钥不存在");
+            }
+            byte[] content = token.substring(0, last).getBytes(StandardCharsets.US_ASCII);
+            byte[] sign = Base64.getUrlDecoder().decode(token.substring(last + 1));
+            if (!verifySignature(header.getString("alg"), key, content, sign)) {
+                return invalid("Token签名无效");
+            }
+            claims = JSON.parseObject(Base64.getUrlDecoder().decode(token.substring(first + 1, last)));
+            if (claims == null) {
+                return invalid("Token格式错误");
+            }
+        } catch (IllegalArgumentException | GeneralSecurityException | JSONException e) {
+            log.debug("JWT解析失败", e);
+            return invalid("Token格式错误");
+        }
+
+        long now = System.currentTimeMillis();
+        long skew = config.getClockSkew() * 1000;
+        Long exp = claims.getLong("exp");
+        if (exp == null) {
+            return invalid("Token缺少过期时间");
+        }
+        if (exp * 1000 + skew < now) {
+            Result<UserInfo> expired = Result.error(PubError.EXPIRED, "Token已过期");
+            return expired;
+        }
+        Long nbf = claims.getLong("nbf");
+        if (nbf != null && nbf * 1000 - skew > now) {
+            return invalid("Token未生效");
+        }
+        String username = claims.getString(config.getUsernameClaim());
+        if (username == null) {
+            return invalid("Token缺少用户信息");
+        }
+        Long iat = claims.getLong("iat");
+        if (iat == null) {
+            // 没有签发时间无法判断是否在吊销之后签发，不接受
+            return invalid("Token缺少签发时间");
+        }
+        if (tokenRevocationService.isRevoked(username, iat)) {
+            return invalid("Token已失效");
+        }
+
+        JSONObject user = new JSONObject();
+        user.put("username", username);
+        user.put("userId", claims.get(config.getUserIdClaim()));
+        user.put("roleId", claims.get(config.getRoleIdClaim()));
+        user.put("tenantId", claims.get(config.getTenantIdClaim()));
+        user.put("expireAt", exp * 1000);
+        Result<UserInfo> result = Result.success(user.to(UserInfo.class));
+        return result;
+    }
+
+    private PublicKey selectKey(String kid) {
+        if (kid != null) {
+            return publicKeys.get(kid);
+        }
+        // 未指定kid且只有一个公钥时直接使用
+        return publicKeys.size() == 1 ? publicKeys.values().iterator().next() : null;
+    }
+
+    private static boolean verifySignature(String alg, PublicKey key, byte[] content, byte[] sign)
+            throws GeneralSecurityException {
+        if (alg == null) {
+            return false;
+        }
+        String algorithm;
+        int ecSize = 0;
+        switch (alg) {
+            case "RS256":
+                algorithm = "SHA256withRSA";
+                break;
+            case "RS384":
+                algorithm = "SHA384withRSA";
+                break;
+            case "RS512":
+                algorithm = "SHA512withRSA";
+                break;
+            case "ES256":
+                algorithm = "SHA256withECDSA";
+                ecSize = 32;
+                break;
+            case "ES384":
+                algorithm = "SHA384withECDSA";
+                ecSize = 48;
+                break;
+            case "ES512":
+                algorithm = "SHA512withECDSA";
+                ecSize = 66;
+                break;
+            default:
+                // 不支持none及对称签名，防止算法替换攻击
+                return false;
+        }
+        if (!(ecSize > 0 ? "EC" : "RSA").equals(key.getAlgorithm())) {
+            return false;
+        }
+        if (ecSize > 0) {
+            if (sign.length != ecSize * 2) {
+                return false;
+            }
+            sign = toDer(sign, ecSize);
+        }
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initVerify(key);
+        signature.update(content);
+        return signature.verify(sign);
+    }
+
+    /**
+     * JWS的ECDSA签名为 R||S 定长格式，JDK需要DER编码
+     */
+    private static byte[] toDer(byte[] raw, int size) {
+        byte[] r = derInteger(raw, 0, size);
+        byte[] s = derInteger(raw, size, size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(r.length + s.length + 3);
+        out.write(0x30);
+        int len = r.length + s.length;
+        if (len >= 128) {
+            out.write(0x81);
+        }
+        out.write(len);
+        out.write(r, 0, r.length);
+        out.write(s, 0, s.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] derInteger(byte[] raw, int offset, int size) {
+        int start = offset;
+        int end = offset + size;
+        while (start < end - 1 && raw[start] == 0) {
+            start++;
+        }
+        boolean pad = (raw[start] & 0x80) != 0;
+        int len = end - start + (pad ? 1 : 0);
+        byte[] der = new byte[len + 2];
+        der[0] = 0x02;
+        der[1] = (byte) len;
+        System.arraycopy(raw, start, der, 2 + (pad ? 1 : 0), end - start);
+        return der;
+    }
+
+    private static PublicKey parsePublicKey(String pem) {
+        String base64 = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+        X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(base64));
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(spec);
+        } catch (GeneralSecurityException e) {
+            try {
+                return KeyFactory.getInstance("EC").generatePublic(spec);
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalArgumentException("JWT公钥格式错误", ex);
+            }
+        }
+    }
+
+    private static Result<UserInfo> invalid(String message) {
+        Result<UserInfo> result = Result.error(PubError.INVALID, message);
+        return result;
+    }
+}
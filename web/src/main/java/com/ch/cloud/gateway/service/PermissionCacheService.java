@@ -0,0 +1,337 @@
+package com.ch.cloud.gateway.service;
+
+import com.ch.cloud.gateway.conf.PermissionCacheConfig;
+import com.ch.cloud.gateway.pojo.CacheType;
+import com.ch.cloud.gateway.utils.PermissionMatcher;
+import com.ch.cloud.gateway.utils.RouteClassIndex;
+import com.ch.cloud.gateway.utils.SingleFlight;
+import com.ch.cloud.upms.dto.PermissionDto;
+import com.ch.cloud.upms.enums.PermissionType;
+import com.ch.result.Result;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.JsonJacksonCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 权限缓存服务
+ * <p>
+ * 一级缓存：本地有界缓存，保存已编译的权限匹配器；二级缓存：Redis {@link CacheType#PERMISSIONS_MAP}。
+ * 权限变更时通过 Redis 发布订阅广播到所有网关节点，清理本地缓存。缓存未命中时同一个key在本节点只加载一次，
+ * 开启集群锁后整个集群只加载一次。本地缓存临近过期时后台刷新（refresh-ahead），过期后在最大容忍时间内
+ * 继续返回旧值并后台刷新（stale-while-revalidate），用户权限中心不可用时不会影响已缓存的权限。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Service
+@Slf4j
+public class PermissionCacheService {
+
+    /**
+     * 权限本地缓存清理广播主题
+     */
+    public static final String CLEAN_TOPIC = "gateway:permissions:clean";
+
+    /**
+     * 清理全部本地缓存
+     */
+    public static final String CLEAN_ALL = "*";
+
+    @Autowired
+    private FeignClientHolder feignClientHolder;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private PermissionCacheConfig config;
+
+    private Cache<String, CachedPermissions> localCache;
+
+    private final SingleFlight<String, CachedPermissions> loads = new SingleFlight<>();
+
+    /**
+     * 本地缓存版本号，每次清理加一
+     */
+    private final AtomicLong cacheVersion = new AtomicLong();
+
+    private volatile RouteClassIndex routeClassIndex;
+
+    private int listenerId = -1;
+
+    @PostConstruct
+    public void init() {
+        // 本地缓存按最大容忍时间淘汰，过期前由 refresh-ahead/stale-while-revalidate 后台刷新
+        localCache = CacheBuilder.newBuilder().maximumSize(config.getLocalMaxSize())
+                .expireAfterWrite(Math.max(config.getLocalTtl(), config.getMaxStale()), TimeUnit.SECONDS).build();
+        RTopic topic = redissonClient.getTopic(CLEAN_TOPIC, StringCodec.INSTANCE);
+        listenerId = topic.addListener(String.class, (channel, key) -> invalidate(key));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (listenerId != -1) {
+            redissonClient.getTopic(CLEAN_TOPIC, StringCodec.INSTANCE).removeListener(listenerId);
+        }
+    }
+
+    /**
+     * 获取权限列表
+     */
+    public Mono<Collection<PermissionDto>> getPermissions(CacheType cacheType, Long roleId) {
+        return get(cacheType, roleId).map(CachedPermissions::getPermissions);
+    }
+
+    /**
+     * 获取编译后的权限匹配器
+     */
+    public Mono<PermissionMatcher> getMatcher(CacheType cacheType, Long roleId) {
+        return get(cacheType, roleId).map(CachedPermissions::getMatcher);
+    }
+
+    /**
+     * 获取请求权限分类索引，白名单、临时授权码、Cookie、登录权限列表未变化时复用
+     */
+    public Mono<RouteClassIndex> getRouteClassIndex() {
+        return Mono.zip(getMatcher(CacheType.PERMISSIONS_WHITE_LIST, null),
+                getMatcher(CacheType.PERMISSIONS_TEMP_LIST, null),
+                getMatcher(CacheType.PERMISSIONS_COOKIE_LIST, null),
+                getMatcher(CacheType.PERMISSIONS_LOGIN_LIST, null)).map(t -> {
+            RouteClassIndex index = routeClassIndex;
+            if (index == null || !index.isBuiltFrom(t.getT1(), t.getT2(), t.getT3(), t.getT4())) {
+                index = new RouteClassIndex(t.getT1(), t.getT2(), t.getT3(), t.getT4(), config.getClassifyMemoSize());
+                routeClassIndex = index;
+            }
+            return index;
+        });
+    }
+
+    private Mono<CachedPermissions> get(CacheType cacheType, Long roleId) {
+        if (cacheType == CacheType.PERMISSIONS_AUTH_LIST && roleId == null) {
+            return Mono.just(CachedPermissions.EMPTY);
+        }
+        String key = cacheKey(cacheType, roleId);
+        if (config.isLocalEnabled()) {
+            CachedPermissions cached = localCache.getIfPresent(key);
+            if (cached != null) {
+                long age = System.currentTimeMillis() - cached.loadedAt;
+                if (age >= config.getLocalTtl() * 1000L * config.getRefreshAheadRatio()
+                        && cached.tryStartRefresh(config.getRefreshRetryInterval() * 1000L)) {
+                    // 临近过期（或已过期但仍在最大容忍时间内）：先返回当前值，后台刷新；
+                    // 刷新成功后替换为新值，失败时在重试间隔内不再刷新
+                    refresh(cacheType, roleId, key);
+                }
+                return Mono.just(cached);
+            }
+        }
+        return reload(cacheType, roleId, key).onErrorResume(e -> {
+            log.error("[用户权限]加载权限缓存失败: {}", key, e);
+            return Mono.just(CachedPermissions.EMPTY);
+        });
+    }
+
+    /**
+     * 加载并写入本地缓存
+     * <p>
+     * 加载期间本地缓存被清理（版本号变化）时不写入，避免清理前开始的加载把旧权限重新放回本地缓存；
+     * 清理后的请求按新版本号重新加载，不复用清理前开始的加载
+     */
+    private Mono<CachedPermissions> reload(CacheType cacheType, Long roleId, String key) {
+        long version = cacheVersion.get();
+        return loads.execute(key + '@' + version, () -> load(cacheType, roleId, key).doOnNext(c -> {
+            if (config.isLocalEnabled() && cacheVersion.get() == version) {
+                localCache.put(key, c);
+                if (cacheVersion.get() != version) {
+                    // 写入时恰好被清理
+                    localCache.invalidate(key);
+                }
+            }
+        }));
+    }
+
+    /**
+     * 后台刷新，失败时继续使用旧值
+     */
+    private void refresh(CacheType cacheType, Long roleId, String key) {
+        reload(cacheType, roleId, key).subscribe(c -> log.debug("[用户权限]后台刷新权限缓存完成: {}", key),
+                e -> log.warn("[用户权限]后台刷新权限缓存失败，继续使用旧数据: {}", key, e));
+    }
+
+    /**
+     * 从Redis加载，Redis没有则从用户权限中心获取
+     */
+    private Mono<CachedPermissions> load(CacheType cacheType, Long roleId, String key) {
+        RMapCache<String, List<PermissionDto>> permissionsMap = redissonClient.getMapCache(
+                CacheType.PERMISSIONS_MAP.key(), JsonJacksonCodec.INSTANCE);
+        return Mono.fromCompletionStage(() -> permissionsMap.getAsync(key))
+                .switchIfEmpty(Mono.defer(() -> config.isClusterLock()
+                        ? fetchWithLock(permissionsMap, cacheType, roleId, key)
+                        : fetchAndStore(permissionsMap, cacheType, roleId, key)))
+                .map(permissions -> new CachedPermissions(permissions, PermissionMatcher.compile(permissions),
+                        System.currentTimeMillis()));
+    }
+
+    /**
+     * 从远程服务获取权限列表并写入Redis
+     */
+    private Mono<List<PermissionDto>> fetchAndStore(RMapCache<String, List<PermissionDto>> permissionsMap,
+            CacheType cacheType, Long roleId, String key) {
+        return fetchPermissions(cacheType, roleId).flatMap(permissions -> Mono.fromCompletionStage(
+                        () -> permissionsMap.fastPutIfAbsentAsync(key, permissions, config.getRedisTtl(), TimeUnit.SECONDS))
+                .thenReturn(permissions));
+    }
+
+    /**
+     * 集群内加锁加载：拿到锁后再次检查Redis，保证整个集群同一时刻只有一个节点调用用户权限中心
+     */
+    private Mono<List<PermissionDto>> fetchWithLock(RMapCache<String, List<PermissionDto>> permissionsMap,
+            CacheType cacheType, Long roleId, String key) {
+        RLock lock = redissonClient.getLock(CacheType.PERMISSIONS_MAP.key("lock", key));
+        long lockId = ThreadLocalRandom.current().nextLong();
+        return Mono.fromCompletionStage(() -> lock.tryLockAsync(config.getClusterLockWait(),
+                config.getClusterLockLease(), TimeUnit.MILLISECONDS, lockId)).flatMap(locked -> {
+            Mono<List<PermissionDto>> permissions = Mono.fromCompletionStage(() -> permissionsMap.getAsync(key))
+                    .switchIfEmpty(Mono.defer(() -> fetchAndStore(permissionsMap, cacheType, roleId, key)));
+            if (!locked) {
+                // 等待超时，其它节点可能已经加载完成，没有则自己加载
+                log.debug("[用户权限]等待集群加载锁超时: {}", key);
+                return permissions;
+            }
+            return permissions.doFinally(signal -> lock.unlockAsync(lockId));
+        });
+    }
+
+    /**
+     * 从远程服务获取权限列表
+     */
+    private Mono<List<PermissionDto>> fetchPermissions(CacheType cacheType, Long roleId) {
+        Mono<Result<PermissionDto>> res;
+        switch (cacheType) {
+            case PERMISSIONS_WHITE_LIST:
+                res = feignClientHolder.whitelistPermissions();
+                break;
+            case PERMISSIONS_LOGIN_LIST:
+                res = feignClientHolder.hiddenPermissions();
+                break;
+            case PERMISSIONS_COOKIE_LIST:
+                res = feignClientHolder.cookiePermissions();
+                break;
+            case PERMISSIONS_TEMP_LIST:
+                res = feignClientHolder.tempPermissions();
+                break;
+            default:
+                res = feignClientHolder.rolePermissions(roleId);
+                break;
+        }
+        // 调用失败不写缓存，由调用方决定返回空权限还是继续使用旧数据
+        return res.doOnError(e -> log.error("[用户权限]调用用户权限中心Feign失败", e)).handle((r, sink) -> {
+            if (!r.isSuccess()) {
+                sink.error(new IllegalStateException("[用户权限]获取权限失败: " + r.getMessage()));
+                return;
+            }
+            List<PermissionDto> list = r.getRows() == null ? Lists.newArrayList() : Lists.newArrayList(r.getRows());
+            if (cacheType == CacheType.PERMISSIONS_AUTH_LIST) {
+                // 过滤掉权限码接口
+                list = list.stream().filter(dto -> PermissionType.from(dto.getType(), dto.getHidden())
+                        != PermissionType.AUTH_CODE_INTERFACE).collect(Collectors.toList());
+            }
+            sink.next(list);
+        });
+    }
+
+    /**
+     * 清理本节点本地缓存
+     *
+     * @param key 权限缓存key，{@link #CLEAN_ALL} 表示全部
+     */
+    public void invalidate(String key) {
+        // 先更新版本号再清理，正在进行的加载结果不再写入
+        cacheVersion.incrementAndGet();
+        if (CLEAN_ALL.equals(key)) {
+            localCache.invalidateAll();
+        } else {
+            localCache.invalidate(key);
+        }
+        log.debug("权限本地缓存已清理: {}", key);
+    }
+
+    /**
+     * 广播清理所有节点本地缓存
+     *
+     * @param key 权限缓存key，{@link #CLEAN_ALL} 表示全部
+     */
+    public void broadcastInvalidate(String key) {
+        redissonClient.getTopic(CLEAN_TOPIC, StringCodec.INSTANCE).publish(key);
+    }
+
+    public static String cacheKey(CacheType cacheType, Long roleId) {
+        return roleId != null ? roleId.toString() : cacheType.getCode();
+    }
+
+    /**
+     * 缓存的权限列表及其编译结果
+     */
+    public static final class CachedPermissions {
+
+        static final CachedPermissions EMPTY = new CachedPermissions(Collections.emptyList(),
+                PermissionMatcher.EMPTY, 0);
+
+        private final Collection<PermissionDto> permissions;
+
+        private final PermissionMatcher matcher;
+
+        /**
+         * 加载时间
+         */
+        private final long loadedAt;
+
+        /**
+         * 下次允许后台刷新的时间
+         */
+        private final AtomicLong nextRefreshAt = new AtomicLong();
+
+        CachedPermissions(Collection<PermissionDto> permissions, PermissionMatcher matcher, long loadedAt) {
+            this.permissions = permissions;
+            this.matcher = matcher;
+            this.loadedAt = loadedAt;
+        }
+
+        public Collection<PermissionDto> getPermissions() {
+            return permissions;
+        }
+
+        public PermissionMatcher getMatcher() {
+            return matcher;
+        }
+
+        /**
+         * 到了允许刷新的时间则占用本次刷新，并把下次允许刷新的时间推后 retryInterval 毫秒
+         */
+        boolean tryStartRefresh(long retryInterval) {
+            long now = System.currentTimeMillis();
+            long next = nextRefreshAt.get();
+            return now >= next && nextRefreshAt.compareAndSet(next, now + retryInterval);
+        }
+    }
+}
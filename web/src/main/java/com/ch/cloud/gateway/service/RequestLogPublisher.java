@@ -0,0 +1,251 @@
+package com.ch.cloud.gateway.service;
+
+import com.ch.cloud.gateway.conf.RequestRecorderConfig;
+import com.ch.cloud.gateway.pojo.RequestLogEvent;
+import com.ch.cloud.gateway.utils.BoundedRingBuffer;
+import com.ch.cloud.gateway.utils.RequestLogSpool;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 请求日志异步批量发送
+ * <p>
+ * 请求线程只把日志放入有界无锁环形队列，由独立发送线程批量取出，使用RocketMQ批量消息发送（用户名作为tag）。
+ * MQ变慢或不可用时只会导致队列积压，按 {@link RequestRecorderConfig.OverflowPolicy} 丢弃、采样或落盘，不影响请求耗时。
+ * 发送失败的日志写入本地落盘（{@link RequestLogSpool}），发送线程与实时日志交替逐批重新发送；未启用MQ时日志直接落盘。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Service
+@Slf4j
+public class RequestLogPublisher {
+
+    public static final String MQ_TOPIC = "request-logs";
+
+    private static final long REPLAY_BACKOFF = 5000;
+
+    @Value("${rocketmq.enabled:false}")
+    private Boolean mqOn;
+
+    @Resource
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Autowired
+    private RequestRecorderConfig config;
+
+    private BoundedRingBuffer<RequestLogEvent> queue;
+
+    private RequestLogSpool spool;
+
+    private Thread publisher;
+
+    private volatile boolean running;
+
+    /**
+     * 发送失败后暂停重发落盘日志，直到该时间
+     */
+    private long replayAfter;
+
+    /**
+     * 发送线程是否在等待新日志
+     */
+    private final AtomicBoolean idle = new AtomicBoolean();
+
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        boolean mqEnabled = Boolean.TRUE.equals(mqOn);
+        if (config.isSpillEnabled()) {
+            spool = new RequestLogSpool(config.getSpillDir(), config.getSpillSegmentSize(), config.getSpillMaxBytes(),
+                    config.getBufferSize(), !mqEnabled);
+        }
+        if (!mqEnabled) {
+            return;
+        }
+        queue = new BoundedRingBuffer<>(config.getBufferSize());
+        running = true;
+        publisher = new Thread(this::publishLoop, "request-log-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (publisher != null) {
+            running = false;
+            LockSupport.unpark(publisher);
+            try {
+                publisher.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        log.info("请求日志发送线程已停止，已发送: {}，丢弃: {}，落盘: {}", sent.get(), dropped.get(), spilled.get());
+    }
+
+    /**
+     * 是否通过MQ发送或本地落盘
+     */
+    public boolean isEnabled() {
+        return queue != null || spool != null;
+    }
+
+    /**
+     * 提交日志，不阻塞
+     *
+     * @param username 用户名，作为消息tag
+     * @param logData  日志内容（UTF-8）
+     */
+    public void publish(String username, byte[] logData) {
+        RequestLogEvent event = new RequestLogEvent(username, logData);
+        if (queue == null) {
+            // 未启用MQ，直接落盘
+            spill(event);
+            return;
+        }
+        switch (config.getOverflowPolicy()) {
+            case SAMPLE:
+                if (queue.size() >= queue.capacity() * config.getSampleWatermark()
+                        && sampleCounter.getAndIncrement() % Math.max(1, config.getSampleRate()) != 0) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                if (!queue.offer(event)) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                break;
+            case SPILL:
+                if (!queue.offer(event)) {
+                    spill(event);
+                    return;
+                }
+                break;
+            default:
+                while (!queue.offer(event)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+        }
+        if (idle.compareAndSet(true, false)) {
+            LockSupport.unpark(publisher);
+        }
+    }
+
+    private void publishLoop() {
+        List<RequestLogEvent> batch = new ArrayList<>(config.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            int bytes = 0;
+            RequestLogEvent event;
+            while (batch.size() < config.getBatchSize() && (event = queue.poll()) != null) {
+                batch.add(event);
+                bytes += event.getBody().length;
+                if (bytes >= config.getBatchMaxBytes()) {
+                    break;
+                }
+            }
+            boolean busy = !batch.isEmpty();
+            if (busy) {
+                if (!send(batch) && spool != null) {
+                    batch.forEach(this::spill);
+                }
+                batch.clear();
+            }
+            // 每发送一批实时日志最多重发一批落盘日志，落盘积压较多时实时日志同样及时发送
+            if (spool != null && System.currentTimeMillis() >= replayAfter && spool.hasPending()
+                    && spool.replay(this::send, config.getBatchSize(), config.getBatchMaxBytes())) {
+                busy = true;
+            }
+            if (busy) {
+                continue;
+            }
+            if (running) {
+                idle.set(true);
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(config.getFlushInterval()));
+                }
+                idle.set(false);
+            }
+        }
+    }
+
+    /**
+     * 批量发送，失败时返回false
+     */
+    private boolean send(List<RequestLogEvent> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (RequestLogEvent event : batch) {
+            Message message = new Message(MQ_TOPIC, event.getBody());
+            if (!event.getTag().isEmpty()) {
+                message.setTags(event.getTag());
+            }
+            messages.add(message);
+        }
+        try {
+            if (messages.size() == 1) {
+                rocketMQTemplate.getProducer().send(messages.get(0));
+            } else {
+                rocketMQTemplate.getProducer().send(messages);
+            }
+            sent.addAndGet(messages.size());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Failed to send request logs: {}", batch.size(), e);
+        } catch (Exception e) {
+            log.error("Failed to send request logs: {}", batch.size(), e);
+        }
+        if (spool == null) {
+            dropped.addAndGet(batch.size());
+        }
+        replayAfter = System.currentTimeMillis() + REPLAY_BACKOFF;
+        return false;
+    }
+
+    private void spill(RequestLogEvent event) {
+        if (spool != null && spool.offer(event)) {
+            spilled.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+}
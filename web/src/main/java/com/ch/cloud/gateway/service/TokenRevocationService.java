@@ -0,0 +1,111 @@
+package com.ch.cloud.gateway.service;
+
+import com.ch.cloud.gateway.conf.JwtConfig;
+import com.ch.cloud.gateway.pojo.CacheType;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.JsonJacksonCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token吊销服务
+ * <p>
+ * 本地校验的签名token无法通过删除Redis缓存失效，按用户记录吊销时间，签发时间早于吊销时间（按秒截断）的token视为已吊销；
+ * token的签发时间（iat）只精确到秒，吊销的同一秒内签发的token视为吊销后签发。
+ * 吊销记录保存在 Redis {@link CacheType#GATEWAY_REVOKED}（节点启动时加载），并通过 Redis 发布订阅同步到所有网关节点，
+ * 本地只保留 用户名 -> 吊销时间，校验时不访问网络。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Service
+@Slf4j
+public class TokenRevocationService {
+
+    /**
+     * 吊销广播主题
+     */
+    public static final String REVOKE_TOPIC = "gateway:users:revoke";
+
+    private static final char SEPARATOR = '@';
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private JwtConfig config;
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    private int listenerId = -1;
+
+    @PostConstruct
+    public void init() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        revoked.putAll(revokedMap().readAllMap());
+        RTopic topic = redissonClient.getTopic(REVOKE_TOPIC, StringCodec.INSTANCE);
+        listenerId = topic.addListener(String.class, (channel, msg) -> {
+            int idx = msg.lastIndexOf(SEPARATOR);
+            if (idx > 0) {
+                put(msg.substring(0, idx), Long.parseLong(msg.substring(idx + 1)));
+            }
+        });
+        log.info("Token吊销记录加载完成: {}", revoked.size());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (listenerId != -1) {
+            redissonClient.getTopic(REVOKE_TOPIC, StringCodec.INSTANCE).removeListener(listenerId);
+        }
+    }
+
+    /**
+     * 吊销用户当前时间之前签发的所有token，并广播到所有网关节点
+     *
+     * @param username 用户名
+     */
+    public void revoke(String username) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long revokedAt = System.currentTimeMillis();
+        revokedMap().fastPut(username, revokedAt, config.getRevokedTtl(), TimeUnit.SECONDS);
+        redissonClient.getTopic(REVOKE_TOPIC, StringCodec.INSTANCE).publish(username + SEPARATOR + revokedAt);
+    }
+
+    /**
+     * token是否已吊销
+     *
+     * @param username 用户名
+     * @param issuedAt 签发时间（秒，即token的iat）
+     */
+    public boolean isRevoked(String username, long issuedAt) {
+        Long revokedAt = revoked.get(username);
+        return revokedAt != null && issuedAt < TimeUnit.MILLISECONDS.toSeconds(revokedAt);
+    }
+
+    private void put(String username, long revokedAt) {
+        revoked.merge(username, revokedAt, Math::max);
+        // 清理超过保留时间的记录，此时对应的token已过期
+        long expired = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(config.getRevokedTtl());
+        revoked.values().removeIf(t -> t < expired);
+    }
+
+    private RMapCache<String, Long> revokedMap() {
+        return redissonClient.getMapCache(CacheType.GATEWAY_REVOKED.key(), JsonJacksonCodec.INSTANCE);
+    }
+}
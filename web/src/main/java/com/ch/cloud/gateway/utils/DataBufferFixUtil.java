@@ -1,44 +0,0 @@
-package com.ch.cloud.gateway.utils;
-
-import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferUtils;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-public class DataBufferFixUtil {
-
-    private DataBufferFixUtil() {
-    }
-
-    public static Mono<DataBufferWrapper> join(Flux<DataBuffer> dataBuffers) {
-        return dataBuffers.collectList()
-                .filter(list -> !list.isEmpty())
-                .map(list -> list.get(0).factory().join(list))
-                .publishOn(Schedulers.boundedElastic())
-                .map(buf -> {
-                    InputStream source = buf.asInputStream();
-                    ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                    byte[] buff = new byte[4096];
-
-                    try {
-                        int n = 0;
-                        while ((n = source.read(buff)) != -1) {
-                            stream.write(buff, 0, n);
-                        }
-                    } catch (IOException e) {
-                        //
-                    }
-
-                    DataBufferWrapper wrapper = new DataBufferWrapper(stream.toByteArray(), buf.factory());
-                    DataBufferUtils.release(buf);   //当前版本的 DataBufferUtils::join 没有这一句
-
-                    return wrapper;
-                })
-                .defaultIfEmpty(new DataBufferWrapper());
-    }
-}
@@ -4,6 +4,4 @@ public interface GatewayConstants {
 
     String PATH_DOWNLOAD_PATTERN = "/**/download/**";
     String PATH_IMAGES_PATTERN = "/**/images/**";
-    
-    String FILTER_HEADER_SKIP_AFTER = "skip-after";
 }
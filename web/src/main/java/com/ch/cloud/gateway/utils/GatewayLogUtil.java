@@ -1,13 +1,12 @@
 package com.ch.cloud.gateway.utils;
 
-import com.alibaba.fastjson2.JSONArray;
-import com.alibaba.fastjson2.JSONObject;
-import com.alibaba.fastjson2.JSONValidator;
-import com.ch.Constants;
+import com.ch.cloud.gateway.decorator.RecorderPrefixServerHttpRequestDecorator;
+import com.ch.cloud.gateway.decorator.RecorderServerHttpRequestDecorator;
 import com.ch.cloud.gateway.decorator.RecorderServerHttpResponseDecorator;
+import com.ch.cloud.gateway.pojo.AuthContext;
 import com.ch.utils.CommonUtils;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpCookie;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -18,16 +17,12 @@ import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.lang.Nullable;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.server.ServerWebExchange;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
 
@@ -39,8 +34,6 @@ public class GatewayLogUtil {
     
     private static final String REQUEST_RECORDER_LOG_BUFFER = "RequestRecorderGlobalFilter.request_recorder_log_buffer";
     
-    private static final String BODY_BUFFER = "RequestRecorderGlobalFilter.request_body_buffer";
-    
     private static final String REQUEST_PROCESS_SEPARATOR = "\n[REQUEST_PROCESS_SEPARATOR]\n";
     
     private static final String HEADER_COOKIE_KEY = "Cookie";
@@ -67,59 +60,6 @@ public class GatewayLogUtil {
         //form没有记录
     }
     
-    private static Mono<Void> doRecordBody(StringBuffer buffer, Flux<DataBuffer> body, Charset charset,
-            boolean isResponse, JSONObject json) {
-        return DataBufferFixUtil.join(body).doOnNext(wrapper -> {
-            
-            String data = new String(wrapper.getData(), charset);
-            JSONValidator from = JSONValidator.from(data);
-            if (from.validate()) {
-                JSONValidator.Type type = from.getType();
-                
-                if (type == JSONValidator.Type.Array) {
-                    JSONArray array = JSONArray.parseArray(data);
-                    if (isResponse) {
-                        json.put("body", array.subList(0, Math.min(array.size(), 1)));
-                    } else {
-                        json.put("body", array);
-                    }
-                } else if (type == JSONValidator.Type.Object) {
-                    JSONObject obj = JSONObject.parseObject(data);
-                    if (isResponse && obj.containsKey("rows")) {
-                        JSONArray rowsArr = obj.getJSONArray("rows");
-                        obj.put("rows", rowsArr.subList(0, Math.min(rowsArr.size(), 1)));
-                    }
-                    json.put("body", obj);
-                } else {
-                    json.put("body", data);
-                }
-            } else {
-                json.put("body", data);
-            }
-            if (isResponse) {
-                buffer.append("{\"response\":");
-            } else {
-                buffer.append("{\"request\":");
-            }
-            buffer.append(json.toJSONString());
-            buffer.append("}");
-            wrapper.clear();
-        }).then();
-    }
-    
-    private static String subData(String data) {
-        try {
-            JSONObject obj = JSONObject.parseObject(data);
-            if (obj.containsKey("rows")) {
-                JSONArray rowsArr = obj.getJSONArray("rows");
-                obj.put("rows", rowsArr.subList(0, Math.min(rowsArr.size(), 10)));
-            }
-            return obj.toJSONString();
-        } catch (Exception ignored) {
-        }
-        return data;
-    }
-    
     private static Charset getMediaTypeCharset(@Nullable MediaType mediaType) {
         if (mediaType != null && mediaType.getCharset() != null) {
             return mediaType.getCharset();
@@ -128,181 +68,224 @@ public class GatewayLogUtil {
         }
     }
     
-    public static Mono<Void> recorderOriginalRequest(ServerWebExchange exchange) {
-        StringBuffer logBuffer = new StringBuffer();
-        exchange.getAttributes().put(REQUEST_RECORDER_LOG_BUFFER, logBuffer);
+    /**
+     * 记录原始请求
+     *
+     * @param masker 敏感字段匹配器，为null时不脱敏
+     */
+    public static Mono<Void> recorderOriginalRequest(ServerWebExchange exchange, SensitiveMasker masker) {
+        RequestLogWriter writer = RequestLogWriter.obtain(masker);
+        exchange.getAttributes().put(REQUEST_RECORDER_LOG_BUFFER, writer);
         ServerHttpRequest request = exchange.getRequest();
-        return recorderRequest(request, logBuffer);
+        return recorderRequest(request, writer, true);
     }
     
-    public static Mono<Void> recorderRouteRequest(ServerWebExchange exchange) {
-        URI uri = exchange.getRequiredAttribute(GATEWAY_REQUEST_URL_ATTR);
-        StringBuffer logBuffer = exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER);
-        if (logBuffer == null) {
-            logBuffer = new StringBuffer();
-        } else {
-            logBuffer.append(REQUEST_PROCESS_SEPARATOR);
-        }
-        
-        logBuffer.append("{\"").append("proxy").append("\":{");
-        appendKeyValueEnd(logBuffer, "url", uri.toString());
-        logBuffer.append("}}");
-        return Mono.empty();
-        
-        //        return recorderRequest(exchange.getRequest(), uri, logBuffer);
+    /**
+     * 记录请求摘要（请求行、请求头、响应状态、响应头，以及已记录的请求体、响应体前缀），用于请求完成后才决定记录的出错或慢请求
+     *
+     * @param masker 敏感字段匹配器，为null时不脱敏
+     */
+    public static byte[] getSummaryLogData(ServerWebExchange exchange, SensitiveMasker masker, long startTimeMillis,
+            long endTimeMillis) {
+        RequestLogWriter writer = RequestLogWriter.obtain(masker);
+        exchange.getAttributes().put(REQUEST_RECORDER_LOG_BUFFER, writer);
+        ServerHttpRequest request = exchange.getRequest();
+        // 请求体已被转发，只能输出已记录的前缀
+        recorderRequest(request, writer, request instanceof RecorderPrefixServerHttpRequestDecorator);
+        writeResponse(writer, exchange.getResponse());
+        return getLogData(exchange, startTimeMillis, endTimeMillis);
     }
     
-    private static void appendKeyValue(StringBuffer logBuffer, String key, String value) {
-        logBuffer.append("\"").append(key).append("\":\"").append(value).append("\"").append(",");
+    /**
+     * 当前请求是否正在完整记录
+     */
+    public static boolean isRecording(ServerWebExchange exchange) {
+        return exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER) != null;
     }
     
-    private static void appendKeyValueEnd(StringBuffer logBuffer, String key, String value) {
-        logBuffer.append("\"").append(key).append("\":\"").append(value).append("\"");
+    public static Mono<Void> recorderRouteRequest(ServerWebExchange exchange) {
+        URI uri = exchange.getRequiredAttribute(GATEWAY_REQUEST_URL_ATTR);
+        RequestLogWriter writer = exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER);
+        if (writer == null) {
+            return Mono.empty();
+        }
+        writer.separator(REQUEST_PROCESS_SEPARATOR);
+        writer.beginObject().name("proxy").beginObject();
+        writer.name("url").text(uri.toString());
+        writer.endObject().endObject();
+        return Mono.empty();
     }
     
-    private static Mono<Void> recorderRequest(ServerHttpRequest request, StringBuffer logBuffer) {
-        JSONObject requestJSON = new JSONObject();
-        requestJSON.put("url", request.getURI().toString());
+    private static Mono<Void> recorderRequest(ServerHttpRequest request, RequestLogWriter writer, boolean recordBody) {
+        writer.beginObject().name("request").beginObject();
+        writer.name("url").text(request.getURI().toString());
         
         HttpMethod method = request.getMethod();
         if (method != null) {
-            requestJSON.put("method", method.name());
+            writer.name("method").value(method.name());
         }
         HttpHeaders headers = request.getHeaders();
-        JSONObject jsonHeader = convertHeadersJSON(headers);
-        requestJSON.put("headers", jsonHeader);
-        JSONObject jsonCookie = convertCookiesJSON(request.getCookies());
-        requestJSON.put("cookies", jsonCookie);
+        writeHeaders(writer, headers);
+        writeCookies(writer, request.getCookies());
         
         Charset bodyCharset = null;
         if (hasBody(method)) {
             long length = headers.getContentLength();
-            requestJSON.put("contentLength", length);
+            writer.name("contentLength").value(length);
             if (length > 0) {
                 MediaType contentType = headers.getContentType();
-                requestJSON.put("contentType", contentType);
-                if (shouldRecordBody(contentType)) {
+                writer.name("contentType").value(contentType == null ? null : contentType.toString());
+                if (recordBody && shouldRecordBody(contentType)) {
                     bodyCharset = getMediaTypeCharset(contentType);
                 }
             }
         }
-        if (bodyCharset != null) {
-            return doRecordBody(logBuffer, request.getBody(), bodyCharset, false, requestJSON);
-        } else {
-            logBuffer.append("{\"request\":").append(requestJSON.toJSONString()).append("}");
+        if (bodyCharset == null) {
+            writer.endObject().endObject();
+            return Mono.empty();
+        }
+        if (request instanceof RecorderPrefixServerHttpRequestDecorator) {
+            RecorderPrefixServerHttpRequestDecorator recorder = (RecorderPrefixServerHttpRequestDecorator) request;
+            if (recorder.isBodyTruncated()) {
+                writer.name("bodyTruncated").value(true);
+            }
+            writer.name("body");
+            int bodyStart = writer.beginBody();
+            recorder.writeCapturedBody(writer);
+            writer.endBody(bodyStart, bodyCharset, false);
+            writer.endObject().endObject();
             return Mono.empty();
         }
+        Charset charset = bodyCharset;
+        if (request instanceof RecorderServerHttpRequestDecorator) {
+            // 缓存请求体后只记录内存中的部分，超过部分已写入临时文件
+            RecorderServerHttpRequestDecorator recorder = (RecorderServerHttpRequestDecorator) request;
+            return recorder.cacheBody().then(Mono.fromRunnable(() -> {
+                if (recorder.isBodyTruncated()) {
+                    writer.name("bodyTruncated").value(true);
+                }
+                writer.name("body");
+                int bodyStart = writer.beginBody();
+                recorder.writeCapturedBody(writer);
+                writer.endBody(bodyStart, charset, false);
+                writer.endObject().endObject();
+            }));
+        }
+        writer.name("body");
+        int bodyStart = writer.beginBody();
+        return request.getBody().doOnNext(buffer -> {
+            writer.body(buffer.asByteBuffer());
+            DataBufferUtils.release(buffer);
+        }).then(Mono.fromRunnable(() -> {
+            writer.endBody(bodyStart, charset, false);
+            writer.endObject().endObject();
+        }));
     }
     
-    private static JSONObject convertCookiesJSON(MultiValueMap<String, ? extends HttpCookie> cookies) {
-        JSONObject cookiesJSON = new JSONObject();
-        if (cookies.isEmpty()) {
-            return cookiesJSON;
-        }
-        
+    private static void writeCookies(RequestLogWriter writer, MultiValueMap<String, ? extends HttpCookie> cookies) {
+        writer.name("cookies").beginObject();
         cookies.forEach((name, values) -> {
-            List<String> collect = values.stream().map(HttpCookie::getValue).collect(Collectors.toList());
-            if (collect.size() == 1) {
-                cookiesJSON.put(name, collect.get(0));
+            writer.name(name);
+            if (writer.isSensitive(name)) {
+                writer.value(RequestLogWriter.MASK);
+            } else if (values.size() == 1) {
+                writer.value(values.get(0).getValue());
             } else {
-                cookiesJSON.put(name, collect);
+                writer.beginArray();
+                values.forEach(cookie -> writer.value(cookie.getValue()));
+                writer.endArray();
             }
         });
-        return cookiesJSON;
+        writer.endObject();
     }
     
-    private static JSONObject convertHeadersJSON(HttpHeaders headers) {
-        JSONObject headersJSON = new JSONObject();
-        if (headers.isEmpty()) {
-            return headersJSON;
-        }
+    private static void writeHeaders(RequestLogWriter writer, HttpHeaders headers) {
+        writer.name("headers").beginObject();
         headers.forEach((name, values) -> {
             if (HEADER_COOKIE_KEY.equalsIgnoreCase(name)) {
                 return;
             }
-            if (values.size() == 1) {
-                headersJSON.put(name, values.get(0));
+            writer.name(name);
+            if (writer.isSensitive(name)) {
+                writer.value(RequestLogWriter.MASK);
+            } else if (values.size() == 1) {
+                writer.value(values.get(0));
             } else {
-                headersJSON.put(name, values);
+                writer.beginArray();
+                values.forEach(writer::value);
+                writer.endArray();
             }
         });
-        return headersJSON;
+        writer.endObject();
     }
     
-    private static void recorderHeader(StringBuffer logBuffer, HttpHeaders headers) {
-        logBuffer.append("\"headers\":{");
-        AtomicInteger i = new AtomicInteger();
-        headers.forEach((name, values) -> {
-            if (values.size() == 1) {
-                appendKeyValueEnd(logBuffer, name, values.get(0).replaceAll("\"", "'"));
-            } else {
-                logBuffer.append("\"").append(name).append("\":").append(JSONObject.toJSONString(values));
-            }
-            int c = i.getAndIncrement();
-            if (c < headers.size() - 1) {
-                logBuffer.append(",");
-            }
-        });
-        logBuffer.append("}");
+    public static Mono<Void> recorderResponse(ServerWebExchange exchange) {
+        RequestLogWriter writer = exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER);
+        Objects.requireNonNull(writer);
+        writeResponse(writer, exchange.getResponse());
+        return Mono.empty();
     }
     
-    public static Mono<Void> recorderResponse(ServerWebExchange exchange) {
-        ServerHttpResponse response = exchange.getResponse();
-        StringBuffer logBuffer = exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER);
-        Objects.requireNonNull(logBuffer);
-        logBuffer.append(REQUEST_PROCESS_SEPARATOR);
+    private static void writeResponse(RequestLogWriter writer, ServerHttpResponse response) {
+        writer.separator(REQUEST_PROCESS_SEPARATOR);
         
         HttpStatus code = response.getStatusCode();
         if (code == null) {
-            logBuffer.append("{\"").append("response").append("\":");
-            logBuffer.append("\"返回异常\"}");
-            return Mono.empty();
+            writer.beginObject().name("response").value("返回异常").endObject();
+            return;
         }
-        JSONObject responseJSON = new JSONObject();
-        responseJSON.put("status", code.value());
+        writer.beginObject().name("response").beginObject();
+        writer.name("status").value(code.value());
         
         HttpHeaders headers = response.getHeaders();
-        JSONObject jsonHeader = convertHeadersJSON(headers);
-        responseJSON.put("headers", jsonHeader);
-        JSONObject jsonCookie = convertCookiesJSON(response.getCookies());
-        responseJSON.put("cookies", jsonCookie);
+        writeHeaders(writer, headers);
+        writeCookies(writer, response.getCookies());
         
         Charset bodyCharset = null;
         if (shouldRecordBody(headers.getContentType())) {
             bodyCharset = getMediaTypeCharset(headers.getContentType());
         }
-        //        boolean isDecorator = exchange.getResponse() instanceof RecorderServerHttpResponseDecorator;
         
-        if (bodyCharset != null) {
-            return doRecordBody(logBuffer, ((RecorderServerHttpResponseDecorator) response).copy(), bodyCharset, true,
-                    responseJSON);
-        } else {
-            logBuffer.append("{\"response\":").append(responseJSON.toJSONString()).append("}");
-            return Mono.empty();
+        if (bodyCharset != null && response instanceof RecorderServerHttpResponseDecorator) {
+            RecorderServerHttpResponseDecorator recorder = (RecorderServerHttpResponseDecorator) response;
+            if (recorder.isBodyTruncated()) {
+                writer.name("bodyTruncated").value(true);
+            }
+            writer.name("body");
+            int bodyStart = writer.beginBody();
+            recorder.writeCapturedBody(writer);
+            writer.endBody(bodyStart, bodyCharset, true);
         }
+        writer.endObject().endObject();
     }
     
-    public static String getLogData(ServerWebExchange exchange) {
+    public static byte[] getLogData(ServerWebExchange exchange) {
         return getLogData(exchange, 0, 0);
     }
     
-    public static String getLogData(ServerWebExchange exchange, long startTimeMillis, long endTimeMillis) {
-        StringBuffer logBuffer = exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER);
-        if (logBuffer == null) {
+    /**
+     * 写入记录部分并取出完整日志（UTF-8），日志缓冲区随后放回对象池
+     */
+    public static byte[] getLogData(ServerWebExchange exchange, long startTimeMillis, long endTimeMillis) {
+        RequestLogWriter writer = exchange.getAttribute(REQUEST_RECORDER_LOG_BUFFER);
+        if (writer == null) {
             return null;
         }
-        logBuffer.append(REQUEST_PROCESS_SEPARATOR);
-        logBuffer.append("{\"").append("record").append("\":{");
+        exchange.getAttributes().remove(REQUEST_RECORDER_LOG_BUFFER);
+        writer.separator(REQUEST_PROCESS_SEPARATOR);
+        writer.beginObject().name("record").beginObject();
         ServerHttpRequest request = exchange.getRequest();
-        appendKeyValue(logBuffer, "url", request.getPath().value());
-        appendKeyValue(logBuffer, "method", request.getMethodValue());
-        String username = request.getHeaders().getFirst(Constants.X_TOKEN_USER);
+        writer.name("url").value(request.getPath().value());
+        writer.name("method").value(request.getMethodValue());
+        String username = AuthContext.username(exchange);
         if (CommonUtils.isNotEmpty(username)) {
-            appendKeyValue(logBuffer, "username", username);
+            writer.name("username").value(username);
         }
-        appendKeyValue(logBuffer, "startTimestamp", String.valueOf(startTimeMillis));
-        appendKeyValueEnd(logBuffer, "endTimestamp", String.valueOf(endTimeMillis));
-        logBuffer.append("}}");
-        return logBuffer.toString();
+        writer.name("startTimestamp").value(String.valueOf(startTimeMillis));
+        writer.name("endTimestamp").value(String.valueOf(endTimeMillis));
+        writer.endObject().endObject();
+        byte[] data = writer.toByteArray();
+        writer.recycle();
+        return data;
     }
 }
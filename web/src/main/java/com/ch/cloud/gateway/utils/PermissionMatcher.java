@@ -0,0 +1,320 @@
+package com.ch.cloud.gateway.utils;
+
+import com.ch.cloud.upms.dto.PermissionDto;
+import com.ch.utils.CommonUtils;
+import org.springframework.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的权限路径匹配器
+ * <p>
+ * 将权限列表按路径段编译成前缀树：字面量段优先，其次是 {@code *}/{@code {var}}/通配段，最后是 {@code **}，
+ * 叶子节点保存HTTP方法位图。匹配语义与 {@code AntPathMatcher("/")} 保持一致，查找耗时只与路径段数相关，
+ * 与权限数量无关。实例不可变，可在多线程间共享。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class PermissionMatcher {
+
+    /**
+     * 空匹配器，不匹配任何路径
+     */
+    public static final PermissionMatcher EMPTY = new PermissionMatcher(new Node(), 0);
+
+    private static final String SEPARATOR = "/";
+
+    private static final String DOUBLE_WILDCARD = "**";
+
+    private static final int ANY_METHOD = -1;
+
+    private static final Pattern GLOB_PATTERN = Pattern.compile("\\?|\\*|\\{((?:\\{[^/]+?}|[^/{}]|\\\\[{}])+?)}");
+
+    private final Node root;
+
+    private final int size;
+
+    private PermissionMatcher(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * 编译权限列表
+     *
+     * @param permissions 权限列表
+     * @return 匹配器
+     */
+    public static PermissionMatcher compile(Collection<PermissionDto> permissions) {
+        if (permissions == null || permissions.isEmpty()) {
+            return EMPTY;
+        }
+        Node root = new Node();
+        int size = 0;
+        for (PermissionDto dto : permissions) {
+            if (dto == null || CommonUtils.isEmpty(dto.getUrl()) || !dto.getUrl().startsWith(SEPARATOR)) {
+                // AntPathMatcher 中以"/"开头的路径不会匹配非"/"开头的模式
+                continue;
+            }
+            int methods = methodMask(dto.getMethod());
+            if (methods == 0) {
+                continue;
+            }
+            root.insert(dto.getUrl(), methods);
+            size++;
+        }
+        return size == 0 ? EMPTY : new PermissionMatcher(root, size);
+    }
+
+    /**
+     * 是否为空
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 编译进来的权限条数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 检查路径与方法是否命中权限
+     *
+     * @param path   请求路径
+     * @param method 请求方法
+     * @return 是否命中
+     */
+    public boolean matches(String path, HttpMethod method) {
+        if (size == 0 || path == null || !path.startsWith(SEPARATOR)) {
+            return false;
+        }
+        String[] segments = tokenize(path);
+        boolean trailingSlash = path.endsWith(SEPARATOR);
+        int bit = method == null ? 0 : 1 << method.ordinal();
+        return root.match(segments, 0, trailingSlash, bit);
+    }
+
+    private static int methodMask(String method) {
+        if (CommonUtils.isEmpty(method)) {
+            return ANY_METHOD;
+        }
+        HttpMethod httpMethod = HttpMethod.resolve(method);
+        return httpMethod == null ? 0 : 1 << httpMethod.ordinal();
+    }
+
+    private static String[] tokenize(String path) {
+        List<String> tokens = new ArrayList<>(8);
+        int start = 0;
+        int len = path.length();
+        for (int i = 0; i <= len; i++) {
+            if (i == len || path.charAt(i) == '/') {
+                if (i > start) {
+                    tokens.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static boolean accept(int methods, int bit) {
+        return methods == ANY_METHOD || (methods & bit) != 0;
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static final class Node {
+
+        private Map<String, Node> literals;
+
+        private List<SegmentNode> wildcards;
+
+        private Node doubleWildcard;
+
+        /**
+         * 模式不以"/"结尾时的方法位图
+         */
+        private int methods;
+
+        /**
+         * 模式以"/"结尾时的方法位图
+         */
+        private int slashMethods;
+
+        void insert(String pattern, int methodMask) {
+            String[] segments = tokenize(pattern);
+            Node node = this;
+            for (String segment : segments) {
+                node = node.child(segment);
+            }
+            if (pattern.endsWith(SEPARATOR)) {
+                node.slashMethods |= methodMask;
+            } else {
+                node.methods |= methodMask;
+            }
+        }
+
+        private Node child(String segment) {
+            if (DOUBLE_WILDCARD.equals(segment)) {
+                if (doubleWildcard == null) {
+                    doubleWildcard = new Node();
+                }
+                return doubleWildcard;
+            }
+            if (!isPattern(segment)) {
+                if (literals == null) {
+                    literals = new HashMap<>(4);
+                }
+                return literals.computeIfAbsent(segment, k -> new Node());
+            }
+            if (wildcards == null) {
+                wildcards = new ArrayList<>(2);
+            }
+            for (SegmentNode wildcard : wildcards) {
+                if (wildcard.segment.equals(segment)) {
+                    return wildcard.node;
+                }
+            }
+            SegmentNode wildcard = new SegmentNode(segment);
+            wildcards.add(wildcard);
+            return wildcard.node;
+        }
+
+        boolean match(String[] segments, int index, boolean trailingSlash, int bit) {
+            if (index == segments.length) {
+                return matchEnd(trailingSlash, bit);
+            }
+            String segment = segments[index];
+            if (literals != null) {
+                Node next = literals.get(segment);
+                if (next != null && next.match(segments, index + 1, trailingSlash, bit)) {
+                    return true;
+                }
+            }
+            if (wildcards != null) {
+                for (SegmentNode wildcard : wildcards) {
+                    if (wildcard.matches(segment) && wildcard.node.match(segments, index + 1, trailingSlash, bit)) {
+                        return true;
+                    }
+                }
+            }
+            if (doubleWildcard != null) {
+                // "**" 可以匹配0个或多个路径段
+                for (int i = index; i <= segments.length; i++) {
+                    if (doubleWildcard.match(segments, i, trailingSlash, bit)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matchEnd(boolean trailingSlash, int bit) {
+            if (accept(trailingSlash ? slashMethods : methods, bit)) {
+                return true;
+            }
+            if (trailingSlash && wildcards != null) {
+                // 与 AntPathMatcher 一致："/a/*" 可以匹配 "/a/"
+                for (SegmentNode wildcard : wildcards) {
+                    if (wildcard.star && accept(wildcard.node.methods, bit)) {
+                        return true;
+                    }
+                }
+            }
+            // 路径已结束，剩余模式段全部是"**"时视为匹配
+            return doubleWildcard != null && doubleWildcard.matchDoubleWildcardTail(bit);
+        }
+
+        private boolean matchDoubleWildcardTail(int bit) {
+            if (accept(methods | slashMethods, bit)) {
+                return true;
+            }
+            return doubleWildcard != null && doubleWildcard.matchDoubleWildcardTail(bit);
+        }
+    }
+
+    /**
+     * 含通配符的路径段
+     */
+    private static final class SegmentNode {
+
+        private final String segment;
+
+        private final Node node = new Node();
+
+        /**
+         * 段模式为"*"或"{var}"时可以匹配任意非空段
+         */
+        private final boolean any;
+
+        private final boolean star;
+
+        private final Pattern pattern;
+
+        SegmentNode(String segment) {
+            this.segment = segment;
+            this.star = "*".equals(segment);
+            this.any = star || isPlainVariable(segment);
+            this.pattern = any ? null : compileSegment(segment);
+        }
+
+        boolean matches(String value) {
+            return any || pattern.matcher(value).matches();
+        }
+    }
+
+    private static boolean isPattern(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+    }
+
+    private static boolean isPlainVariable(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}'
+                && segment.indexOf(':') < 0 && segment.indexOf('{', 1) < 0;
+    }
+
+    /**
+     * 与 AntPathMatcher.AntPathStringMatcher 相同的单段编译规则
+     */
+    private static Pattern compileSegment(String segment) {
+        StringBuilder regex = new StringBuilder();
+        Matcher matcher = GLOB_PATTERN.matcher(segment);
+        int end = 0;
+        while (matcher.find()) {
+            regex.append(quote(segment, end, matcher.start()));
+            String match = matcher.group();
+            if ("?".equals(match)) {
+                regex.append('.');
+            } else if ("*".equals(match)) {
+                regex.append(".*");
+            } else if (match.startsWith("{") && match.endsWith("}")) {
+                int colonIdx = match.indexOf(':');
+                if (colonIdx == -1) {
+                    regex.append("((?s).*)");
+                } else {
+                    regex.append('(').append(match, colonIdx + 1, match.length() - 1).append(')');
+                }
+            }
+            end = matcher.end();
+        }
+        regex.append(quote(segment, end, segment.length()));
+        return Pattern.compile(regex.toString());
+    }
+
+    private static String quote(String s, int start, int end) {
+        if (start == end) {
+            return "";
+        }
+        return Pattern.quote(s.substring(start, end));
+    }
+}
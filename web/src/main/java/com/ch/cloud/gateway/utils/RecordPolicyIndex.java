@@ -0,0 +1,160 @@
+package com.ch.cloud.gateway.utils;
+
+import com.ch.cloud.gateway.conf.RequestRecorderConfig;
+import com.ch.cloud.upms.dto.PermissionDto;
+import org.springframework.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 请求记录策略索引
+ * <p>
+ * 记录策略的路径、方法编译为 {@link PermissionMatcher}，请求进入时（建立请求体缓存之前）按路由、路径、方法
+ * 找到第一个匹配的策略，再按采样比例和每个路由的令牌桶决定是否完整记录。未被选中的请求可以在完成后按状态码、耗时决定是否记录。
+ * 配置刷新后重建。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class RecordPolicyIndex {
+
+    /**
+     * 记录方式
+     */
+    public enum Decision {
+        /**
+         * 完整记录请求体、响应体
+         */
+        FULL,
+        /**
+         * 尾部决策：只保留请求头和少量请求体、响应体前缀，请求完成后出错或慢时才输出
+         */
+        TAIL,
+        /**
+         * 不记录
+         */
+        SKIP
+    }
+
+    private final RequestRecorderConfig config;
+
+    private final List<RequestRecorderConfig.RecordPolicy> source;
+
+    private final List<Policy> policies;
+
+    private final Policy defaults;
+
+    private final boolean tail;
+
+    private RecordPolicyIndex(RequestRecorderConfig config) {
+        this.config = config;
+        this.source = config.getPolicies();
+        List<Policy> list = new ArrayList<>();
+        if (source != null) {
+            for (RequestRecorderConfig.RecordPolicy policy : source) {
+                list.add(new Policy(policy.getRouteId(), compile(policy.getPaths(), policy.getMethods()),
+                        policy.getSampleRate(), policy.getMaxPerSecond()));
+            }
+        }
+        this.policies = Collections.unmodifiableList(list);
+        this.defaults = new Policy(null, null, config.getDefaultSampleRate(), config.getDefaultMaxPerSecond());
+        this.tail = config.isAlwaysRecordErrors() || config.getSlowThreshold() > 0;
+    }
+
+    public static RecordPolicyIndex build(RequestRecorderConfig config) {
+        return new RecordPolicyIndex(config);
+    }
+
+    /**
+     * 决定请求的记录方式
+     *
+     * @param routeId 路由ID，可以为null
+     * @param path    请求路径
+     * @param method  请求方法
+     */
+    public Decision decide(String routeId, String path, HttpMethod method) {
+        Policy policy = defaults;
+        for (Policy candidate : policies) {
+            if (candidate.matches(routeId, path, method)) {
+                policy = candidate;
+                break;
+            }
+        }
+        if (policy.sample() && policy.acquire(routeId)) {
+            return Decision.FULL;
+        }
+        return tail ? Decision.TAIL : Decision.SKIP;
+    }
+
+    /**
+     * 是否由当前配置构建，用于判断配置是否已刷新
+     */
+    public boolean isBuiltFrom(RequestRecorderConfig config) {
+        return this.config == config && this.source == config.getPolicies()
+                && defaults.sampleRate == config.getDefaultSampleRate()
+                && defaults.maxPerSecond == config.getDefaultMaxPerSecond()
+                && tail == (config.isAlwaysRecordErrors() || config.getSlowThreshold() > 0);
+    }
+
+    private static PermissionMatcher compile(List<String> paths, List<String> methods) {
+        List<String> patterns = paths == null || paths.isEmpty() ? Collections.singletonList("/**") : paths;
+        List<String> verbs = methods == null || methods.isEmpty() ? Collections.singletonList("") : methods;
+        List<PermissionDto> permissions = new ArrayList<>(patterns.size() * verbs.size());
+        for (String pattern : patterns) {
+            for (String verb : verbs) {
+                PermissionDto dto = new PermissionDto();
+                dto.setUrl(pattern);
+                dto.setMethod(verb);
+                permissions.add(dto);
+            }
+        }
+        return PermissionMatcher.compile(permissions);
+    }
+
+    private static final class Policy {
+
+        private final String routeId;
+
+        private final PermissionMatcher matcher;
+
+        private final double sampleRate;
+
+        private final int maxPerSecond;
+
+        /**
+         * 每个路由一个令牌桶
+         */
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+        Policy(String routeId, PermissionMatcher matcher, double sampleRate, int maxPerSecond) {
+            this.routeId = routeId;
+            this.matcher = matcher;
+            this.sampleRate = sampleRate;
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        boolean matches(String routeId, String path, HttpMethod method) {
+            if (this.routeId != null && !this.routeId.isEmpty() && !this.routeId.equals(routeId)) {
+                return false;
+            }
+            return matcher.matches(path, method);
+        }
+
+        boolean sample() {
+            return sampleRate >= 1 || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+        }
+
+        boolean acquire(String routeId) {
+            if (maxPerSecond <= 0) {
+                return true;
+            }
+            return buckets.computeIfAbsent(routeId == null ? "" : routeId, k -> new TokenBucket(maxPerSecond))
+                    .tryAcquire();
+        }
+    }
+}
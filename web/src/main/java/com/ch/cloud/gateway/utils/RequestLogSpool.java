@@ -0,0 +1,480 @@
+package com.ch.cloud.gateway.utils;
+
+import com.ch.cloud.gateway.pojo.RequestLogEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * 请求日志本地落盘
+ * <p>
+ * 日志先进入内存队列，由独立线程顺序追加到内存映射的段文件（segment-序号.seg，预分配固定大小，写满后切换新段），
+ * 不阻塞请求线程。记录格式：总长度(int，0表示段结束) + CRC32(int) + tag长度(byte) + tag + 内容，长度最后写入。
+ * <p>
+ * 发送线程调用 {@link #replay(Predicate, int, int)} 从读取位置开始重新发送（包括正在写入的段），
+ * 每次调用只发送一批，积压较多时发送线程仍能及时处理实时日志；每批成功后把读取位置保存到 checkpoint 文件，已读完的段删除，
+ * 重启后从 checkpoint 继续，不会重复发送已确认的批次。
+ * 落盘总大小超过上限时：有发送线程则暂停落盘，否则（未启用MQ）删除最早的段。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+@Slf4j
+public class RequestLogSpool {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    /**
+     * 记录头：总长度 + CRC32 + tag长度
+     */
+    private static final int HEADER_BYTES = 9;
+
+    private static final int MAX_TAG_BYTES = 255;
+
+    private static final long FORCE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    private final long maxBytes;
+
+    private final boolean evictOldest;
+
+    private final BoundedRingBuffer<RequestLogEvent> queue;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    /**
+     * 读取位置：段序号 + 段内偏移
+     */
+    private final MappedByteBuffer checkpoint;
+
+    /**
+     * 所有段序号，最后一个为写入段
+     */
+    private final TreeSet<Long> segments = new TreeSet<>();
+
+    private MappedByteBuffer active;
+
+    private long activeSeq = -1;
+
+    /**
+     * 写入段已提交的位置
+     */
+    private volatile int committed;
+
+    private volatile long totalBytes;
+
+    /**
+     * 落盘已满，不再接收日志
+     */
+    private volatile boolean full;
+
+    private boolean dirty;
+
+    private long readSeq;
+
+    private int readOffset;
+
+    /**
+     * 正在重新发送的已写满段，只由发送线程访问
+     */
+    private ByteBuffer replaying;
+
+    private long replayingSeq = -1;
+
+    /**
+     * @param dir         落盘目录
+     * @param segmentSize 段文件大小
+     * @param maxBytes    落盘文件总大小上限
+     * @param queueSize   内存队列容量
+     * @param evictOldest 超过上限时删除最早的段（没有发送线程时使用），否则暂停落盘
+     */
+    public RequestLogSpool(String dir, int segmentSize, long maxBytes, int queueSize, boolean evictOldest) {
+        this.dir = Paths.get(dir);
+        this.segmentSize = segmentSize;
+        this.maxBytes = Math.max(maxBytes, segmentSize);
+        this.evictOldest = evictOldest;
+        this.queue = new BoundedRingBuffer<>(queueSize);
+        try {
+            Files.createDirectories(this.dir);
+            try (FileChannel channel = FileChannel.open(this.dir.resolve(CHECKPOINT), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+            }
+            readSeq = checkpoint.getLong(0);
+            readOffset = (int) checkpoint.getLong(8);
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("请求日志落盘目录不可用: " + dir, e);
+        }
+        this.writer = new Thread(this::writeLoop, "request-log-spool");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 提交落盘，不阻塞；队列满或落盘已满时返回false
+     */
+    public boolean offer(RequestLogEvent event) {
+        return !full && queue.offer(event);
+    }
+
+    /**
+     * 是否有待发送的落盘日志
+     */
+    public synchronized boolean hasPending() {
+        Long seq = segments.ceiling(readSeq);
+        if (seq == null) {
+            return false;
+        }
+        if (seq != activeSeq) {
+            return true;
+        }
+        return (seq == readSeq ? readOffset : 0) < committed;
+    }
+
+    /**
+     * 重新发送一批落盘日志，只能由一个线程调用；每次最多发送一批，调用方在两次调用之间处理实时日志
+     *
+     * @param sender 发送一批日志，返回是否成功；失败时停止，剩余日志下次重新发送
+     * @return 是否发送了一批日志
+     */
+    public boolean replay(Predicate<List<RequestLogEvent>> sender, int batchSize, int batchMaxBytes) {
+        while (true) {
+            long seq;
+            ByteBuffer segment = null;
+            int limit = 0;
+            synchronized (this) {
+                Long next = segments.ceiling(readSeq);
+                if (next == null) {
+                    return false;
+                }
+                seq = next;
+                if (seq != readSeq) {
+                    moveTo(seq, 0);
+                }
+                if (seq == activeSeq) {
+                    segment = active.duplicate();
+                    limit = committed;
+                }
+            }
+            boolean sealed = segment == null;
+            if (sealed) {
+                segment = mapSealed(seq);
+                if (segment == null) {
+                    return false;
+                }
+                limit = segment.capacity();
+            }
+            int sent = replayBatch(segment, limit, sealed, sender, batchSize, batchMaxBytes);
+            if (sent != 0) {
+                return sent > 0;
+            }
+            if (!sealed) {
+                return false;
+            }
+            // 已读完的段
+            replaying = null;
+            replayingSeq = -1;
+            deleteSegment(seq);
+        }
+    }
+
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (active != null) {
+                active.force();
+            }
+            checkpoint.force();
+        }
+    }
+
+    /**
+     * 映射已写满的段，连续发送同一个段时复用
+     */
+    private ByteBuffer mapSealed(long seq) {
+        if (replaying != null && replayingSeq == seq) {
+            return replaying;
+        }
+        try (FileChannel channel = FileChannel.open(segmentPath(seq), StandardOpenOption.READ)) {
+            replaying = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            replayingSeq = seq;
+            return replaying;
+        } catch (IOException e) {
+            log.error("读取请求日志落盘文件失败: {}", segmentPath(seq), e);
+            return null;
+        }
+    }
+
+    /**
+     * 从读取位置发送一批日志
+     *
+     * @return 发送的日志数，段内没有可发送的日志返回0，发送失败返回-1
+     */
+    private int replayBatch(ByteBuffer segment, int limit, boolean sealed, Predicate<List<RequestLogEvent>> sender,
+            int batchSize, int batchMaxBytes) {
+        List<RequestLogEvent> batch = new ArrayList<>(batchSize);
+        int bytes = 0;
+        int pos = readOffset;
+        CRC32 crc = new CRC32();
+        while (pos + HEADER_BYTES <= limit && batch.size() < batchSize) {
+            int length = segment.getInt(pos);
+            if (length == 0) {
+                break;
+            }
+            boolean valid = length >= HEADER_BYTES && pos + length <= limit;
+            RequestLogEvent event = valid ? read(segment, pos, length, crc) : null;
+            if (event == null) {
+                if (sealed) {
+                    log.warn("请求日志落盘文件已损坏，跳过剩余内容，位置: {}", pos);
+                    pos = limit;
+                }
+                break;
+            }
+            if (!batch.isEmpty() && bytes + event.getBody().length > batchMaxBytes) {
+                break;
+            }
+            batch.add(event);
+            bytes += event.getBody().length;
+            pos += length;
+        }
+        if (batch.isEmpty()) {
+            if (pos != readOffset) {
+                saveReadOffset(pos);
+            }
+            return 0;
+        }
+        if (!sender.test(batch)) {
+            return -1;
+        }
+        saveReadOffset(pos);
+        return batch.size();
+    }
+
+    private RequestLogEvent read(ByteBuffer segment, int pos, int length, CRC32 crc) {
+        int checksum = segment.getInt(pos + 4);
+        int tagLength = segment.get(pos + 8) & 0xff;
+        int bodyLength = length - HEADER_BYTES - tagLength;
+        if (bodyLength < 0) {
+            return null;
+        }
+        byte[] tag = new byte[tagLength];
+        byte[] body = new byte[bodyLength];
+        ByteBuffer record = segment.duplicate();
+        record.position(pos + HEADER_BYTES);
+        record.get(tag);
+        record.get(body);
+        crc.reset();
+        crc.update(tag);
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return new RequestLogEvent(new String(tag, StandardCharsets.UTF_8), body);
+    }
+
+    private void writeLoop() {
+        long lastForce = System.nanoTime();
+        while (running || !queue.isEmpty()) {
+            RequestLogEvent event = queue.poll();
+            if (event == null) {
+                if (System.nanoTime() - lastForce >= FORCE_INTERVAL) {
+                    force();
+                    lastForce = System.nanoTime();
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+            synchronized (this) {
+                write(event);
+            }
+        }
+    }
+
+    private void write(RequestLogEvent event) {
+        byte[] tag = event.getTag().getBytes(StandardCharsets.UTF_8);
+        int tagLength = Math.min(tag.length, MAX_TAG_BYTES);
+        byte[] body = event.getBody();
+        int length = HEADER_BYTES + tagLength + body.length;
+        if (length > segmentSize) {
+            log.warn("请求日志超过落盘段大小，丢弃: {} bytes", length);
+            return;
+        }
+        if (active == null || committed + length > segmentSize) {
+            if (!roll()) {
+                return;
+            }
+        }
+        int pos = committed;
+        CRC32 crc = new CRC32();
+        crc.update(tag, 0, tagLength);
+        crc.update(body);
+        active.position(pos + 4);
+        active.putInt((int) crc.getValue());
+        active.put((byte) tagLength);
+        active.put(tag, 0, tagLength);
+        active.put(body);
+        // 长度最后写入，读取方以长度判断记录是否完整
+        active.putInt(pos, length);
+        committed = pos + length;
+        dirty = true;
+    }
+
+    /**
+     * 切换新段，超过总大小上限时删除最早的段或暂停落盘
+     */
+    private boolean roll() {
+        if (active != null) {
+            active.force();
+            active = null;
+            activeSeq = -1;
+        }
+        while (totalBytes + segmentSize > maxBytes) {
+            Long oldest = segments.isEmpty() ? null : segments.first();
+            if (!evictOldest || oldest == null) {
+                if (!full) {
+                    log.warn("请求日志落盘已达上限 {} bytes，暂停落盘", maxBytes);
+                }
+                full = true;
+                return false;
+            }
+            log.warn("请求日志落盘已达上限，删除最早的落盘文件: {}", segmentPath(oldest));
+            deleteSegment(oldest);
+        }
+        long seq = segments.isEmpty() ? readSeq + 1 : segments.last() + 1;
+        Path path = segmentPath(seq);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            active = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            log.error("创建请求日志落盘文件失败: {}", path, e);
+            return false;
+        }
+        segments.add(seq);
+        activeSeq = seq;
+        committed = 0;
+        totalBytes += segmentSize;
+        full = false;
+        return true;
+    }
+
+    /**
+     * 启动时加载已有的段，最后一个段大小一致时继续写入
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                    totalBytes += Files.size(file);
+                } catch (NumberFormatException e) {
+                    log.warn("忽略无法识别的落盘文件: {}", file);
+                }
+            }
+        }
+        if (segments.isEmpty() || Files.size(segmentPath(segments.last())) != segmentSize) {
+            return;
+        }
+        long seq = segments.last();
+        try (FileChannel channel = FileChannel.open(segmentPath(seq), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            active = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        activeSeq = seq;
+        // 找到最后一条完整记录之后的位置
+        int pos = 0;
+        CRC32 crc = new CRC32();
+        while (pos + HEADER_BYTES <= segmentSize) {
+            int length = active.getInt(pos);
+            if (length < HEADER_BYTES || pos + length > segmentSize || read(active, pos, length, crc) == null) {
+                break;
+            }
+            pos += length;
+        }
+        committed = pos;
+        // 清除不完整的记录
+        if (pos + 4 <= segmentSize) {
+            active.putInt(pos, 0);
+        }
+    }
+
+    private void force() {
+        synchronized (this) {
+            if (active != null && dirty) {
+                active.force();
+                dirty = false;
+            }
+        }
+    }
+
+    private synchronized void deleteSegment(long seq) {
+        Path path = segmentPath(seq);
+        try {
+            long size = Files.exists(path) ? Files.size(path) : 0;
+            Files.deleteIfExists(path);
+            totalBytes = Math.max(0, totalBytes - size);
+        } catch (IOException e) {
+            log.error("删除请求日志落盘文件失败: {}", path, e);
+        }
+        segments.remove(seq);
+        if (seq == activeSeq) {
+            active = null;
+            activeSeq = -1;
+            committed = 0;
+        }
+        if (seq == readSeq) {
+            moveTo(seq + 1, 0);
+        }
+        if (totalBytes + segmentSize <= maxBytes) {
+            full = false;
+        }
+    }
+
+    private synchronized void moveTo(long seq, int offset) {
+        readSeq = seq;
+        saveReadOffset(offset);
+    }
+
+    private synchronized void saveReadOffset(int offset) {
+        readOffset = offset;
+        checkpoint.putLong(0, readSeq);
+        checkpoint.putLong(8, offset);
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,754 @@
+package com.ch.cloud.gateway.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 请求日志流式写入
+ * <p>
+ * 请求、代理、响应、记录各部分直接以UTF-8 JSON写入同一个字节缓冲区，不经过 String / JSONObject 中转；
+ * 缓冲区用完后通过 {@link #recycle()} 放回对象池复用。
+ * <p>
+ * 请求体、响应体先原样追加到缓冲区（{@link #beginBody()} / {@link #body(ByteBuffer)}），
+ * {@link #endBody(int, Charset, boolean)} 时按词法扫描一遍：是JSON对象或数组则原地去掉空白、
+ * 按需截断数组（顶层数组、顶层对象的 rows 数组只保留第一个元素），否则原地转义为JSON字符串，全程不做完整解析。
+ * <p>
+ * 指定 {@link SensitiveMasker} 时在同一遍扫描中脱敏：JSON中字段名包含敏感字段的值（包括对象、数组）整体替换为掩码，
+ * 非JSON内容及URL中 {@code 敏感字段=值}、{@code 敏感字段: 值} 的值替换为掩码。
+ * <p>
+ * 非线程安全，同一请求的各部分按顺序写入。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class RequestLogWriter {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    /**
+     * 超过该大小的缓冲区不放回对象池，避免大请求长期占用内存
+     */
+    private static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+    private static final BoundedRingBuffer<RequestLogWriter> POOL = new BoundedRingBuffer<>(64);
+
+    /**
+     * 脱敏掩码
+     */
+    public static final String MASK = "***";
+
+    private static final byte[] MASK_BYTES = MASK.getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] MASK_JSON = ("\"" + MASK + "\"").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MAX_DEPTH = 16;
+
+    /**
+     * 扫描请求体时的容器标记
+     */
+    private static final int OBJECT = 1;
+
+    private static final int LIMITED = 2;
+
+    /**
+     * 扫描请求体时期望的下一个词法单元
+     */
+    private static final int EXPECT_VALUE = 0;
+
+    private static final int EXPECT_VALUE_OR_END = 1;
+
+    private static final int EXPECT_KEY = 2;
+
+    private static final int EXPECT_KEY_OR_END = 3;
+
+    private static final int EXPECT_COLON = 4;
+
+    private static final int EXPECT_COMMA_OR_END = 5;
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+
+    private int count;
+
+    /**
+     * 当前层级是否已写入过元素（需要先写逗号）
+     */
+    private final boolean[] needComma = new boolean[MAX_DEPTH];
+
+    private int depth;
+
+    private boolean afterName;
+
+    /**
+     * 扫描请求体时的容器栈
+     */
+    private int[] containers = new int[MAX_DEPTH];
+
+    private SensitiveMasker masker;
+
+    private RequestLogWriter() {
+    }
+
+    /**
+     * 从对象池获取
+     *
+     * @param masker 敏感字段匹配器，为null时不脱敏
+     */
+    public static RequestLogWriter obtain(SensitiveMasker masker) {
+        RequestLogWriter writer = POOL.poll();
+        if (writer == null) {
+            writer = new RequestLogWriter();
+        }
+        writer.masker = masker;
+        return writer;
+    }
+
+    /**
+     * 清空并放回对象池，之后不能再使用
+     */
+    public void recycle() {
+        count = 0;
+        depth = 0;
+        needComma[0] = false;
+        afterName = false;
+        masker = null;
+        if (buf.length <= MAX_POOLED_CAPACITY) {
+            POOL.offer(this);
+        }
+    }
+
+    public RequestLogWriter beginObject() {
+        beforeValue();
+        write((byte) '{');
+        push();
+        return this;
+    }
+
+    public RequestLogWriter endObject() {
+        depth--;
+        write((byte) '}');
+        return this;
+    }
+
+    public RequestLogWriter beginArray() {
+        beforeValue();
+        write((byte) '[');
+        push();
+        return this;
+    }
+
+    public RequestLogWriter endArray() {
+        depth--;
+        write((byte) ']');
+        return this;
+    }
+
+    public RequestLogWriter name(String name) {
+        if (needComma[depth]) {
+            write((byte) ',');
+        }
+        needComma[depth] = true;
+        writeString(name);
+        write((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public RequestLogWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * 写入文本值（如URL），其中 {@code 敏感字段=值} 的值脱敏
+     */
+    public RequestLogWriter text(String value) {
+        if (masker == null || value == null) {
+            return value(value);
+        }
+        beforeValue();
+        int start = count;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        body(bytes, 0, bytes.length);
+        moveBack(start, count, maskText(start, count, count));
+        escapeInPlace(start);
+        return this;
+    }
+
+    /**
+     * 字段名是否包含敏感字段，是则其值应写入 {@link #MASK}
+     */
+    public boolean isSensitive(String name) {
+        return masker != null && masker.matches(name);
+    }
+
+    public RequestLogWriter value(long value) {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    public RequestLogWriter value(boolean value) {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * 写入各部分之间的分隔符（ASCII），之后开始新的顶层JSON
+     */
+    public RequestLogWriter separator(String separator) {
+        writeAscii(separator);
+        depth = 0;
+        needComma[0] = false;
+        afterName = false;
+        return this;
+    }
+
+    /**
+     * 开始写入请求体/响应体
+     *
+     * @return 请求体起始位置，传给 {@link #endBody(int, Charset, boolean)}
+     */
+    public int beginBody() {
+        beforeValue();
+        return count;
+    }
+
+    /**
+     * 追加请求体原始内容
+     */
+    public void body(ByteBuffer data) {
+        int length = data.remaining();
+        ensureCapacity(count + length);
+        data.get(buf, count, length);
+        count += length;
+    }
+
+    public void body(byte[] data, int offset, int length) {
+        ensureCapacity(count + length);
+        System.arraycopy(data, offset, buf, count, length);
+        count += length;
+    }
+
+    /**
+     * 结束请求体：JSON对象或数组压缩（按需截断数组），其它内容转义为字符串，同时脱敏
+     *
+     * @param start          {@link #beginBody()} 返回的起始位置
+     * @param charset        请求体编码
+     * @param truncateArrays 顶层数组、顶层对象的 rows 数组是否只保留第一个元素
+     */
+    public void endBody(int start, Charset charset, boolean truncateArrays) {
+        if (!isUtf8(charset) && count > start) {
+            byte[] utf8 = new String(buf, start, count - start, charset).getBytes(StandardCharsets.UTF_8);
+            count = start;
+            body(utf8, 0, utf8.length);
+        }
+        int end = count;
+        if (scan(start, end, -1, false) >= 0) {
+            if (masker == null) {
+                count = scan(start, end, start, truncateArrays);
+            } else {
+                // 掩码可能比原值长，先写到末尾再移回
+                moveBack(start, end, scan(start, end, end, truncateArrays));
+            }
+        } else {
+            if (masker != null) {
+                moveBack(start, end, maskText(start, end, end));
+            }
+            escapeInPlace(start);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (needComma[depth]) {
+            write((byte) ',');
+        }
+        needComma[depth] = true;
+    }
+
+    private void push() {
+        depth++;
+        needComma[depth] = false;
+    }
+
+    private void write(byte b) {
+        ensureCapacity(count + 1);
+        buf[count++] = b;
+    }
+
+    private void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(count + length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * 写入JSON字符串（UTF-8编码并转义）
+     */
+    private void writeString(String s) {
+        int length = s.length();
+        ensureCapacity(count + length + 2);
+        buf[count++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20 || c == '"' || c == '\\') {
+                    writeEscaped((byte) c);
+                } else {
+                    write((byte) c);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(count + 2);
+                buf[count++] = (byte) (0xc0 | c >> 6);
+                buf[count++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(count + 4);
+                buf[count++] = (byte) (0xf0 | cp >> 18);
+                buf[count++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buf[count++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buf[count++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                write((byte) '?');
+            } else {
+                ensureCapacity(count + 3);
+                buf[count++] = (byte) (0xe0 | c >> 12);
+                buf[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[count++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        write((byte) '"');
+    }
+
+    private void writeEscaped(byte b) {
+        ensureCapacity(count + 6);
+        count = escape(b, buf, count);
+    }
+
+    /**
+     * 写入转义后的字符，返回写入后的位置
+     */
+    private static int escape(byte b, byte[] dst, int pos) {
+        dst[pos++] = '\\';
+        switch (b) {
+            case '"':
+            case '\\':
+                dst[pos++] = b;
+                break;
+            case '\n':
+                dst[pos++] = 'n';
+                break;
+            case '\r':
+                dst[pos++] = 'r';
+                break;
+            case '\t':
+                dst[pos++] = 't';
+                break;
+            case '\b':
+                dst[pos++] = 'b';
+                break;
+            case '\f':
+                dst[pos++] = 'f';
+                break;
+            default:
+                dst[pos++] = 'u';
+                dst[pos++] = '0';
+                dst[pos++] = '0';
+                dst[pos++] = HEX[b >> 4 & 0xf];
+                dst[pos++] = HEX[b & 0xf];
+                break;
+        }
+        return pos;
+    }
+
+    private static int escapedLength(byte b) {
+        switch (b) {
+            case '"':
+            case '\\':
+            case '\n':
+            case '\r':
+            case '\t':
+            case '\b':
+            case '\f':
+                return 2;
+            default:
+                return b >= 0 && b < 0x20 ? 6 : 1;
+        }
+    }
+
+    /**
+     * 将 [start, count) 原地转义为JSON字符串：先计算转义后长度，再从后往前填充
+     */
+    private void escapeInPlace(int start) {
+        int end = count;
+        int length = 2;
+        for (int i = start; i < end; i++) {
+            length += escapedLength(buf[i]);
+        }
+        ensureCapacity(start + length);
+        int pos = start + length;
+        buf[--pos] = '"';
+        for (int i = end - 1; i >= start; i--) {
+            byte b = buf[i];
+            int n = escapedLength(b);
+            if (n == 1) {
+                buf[--pos] = b;
+            } else {
+                pos -= n;
+                escape(b, buf, pos);
+            }
+        }
+        buf[start] = '"';
+        count = start + length;
+    }
+
+    /**
+     * 按词法扫描 [start, end) 的JSON（顶层必须是对象或数组）
+     *
+     * @param out 写入位置，小于0时只校验；等于start时原地写入（不脱敏时写入位置不会超过读取位置）
+     * @return 不合法返回-1；否则返回写入结束位置
+     */
+    private int scan(int start, int end, int out, boolean truncateArrays) {
+        boolean write = out >= 0;
+        int level = 0;
+        // 大于0时表示正在跳过该层数组剩余的元素（保留结束符）
+        int skipLevel = 0;
+        // 大于0时表示该层容器是敏感字段的值，整体替换为掩码
+        int maskLevel = 0;
+        int expect = EXPECT_VALUE;
+        boolean rowsKey = false;
+        boolean sensitiveKey = false;
+        boolean done = false;
+        int i = start;
+        while (i < end) {
+            byte b = buf[i];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                i++;
+                continue;
+            }
+            if (done) {
+                return -1;
+            }
+            boolean emit = write && skipLevel == 0 && maskLevel == 0;
+            switch (expect) {
+                case EXPECT_VALUE:
+                case EXPECT_VALUE_OR_END:
+                    if (b == ']' && expect == EXPECT_VALUE_OR_END) {
+                        break;
+                    }
+                    boolean mask = emit && sensitiveKey;
+                    sensitiveKey = false;
+                    if (b == '{' || b == '[') {
+                        boolean limited = b == '[' && truncateArrays && (level == 0 || level == 1 && rowsKey);
+                        if (level == containers.length) {
+                            containers = Arrays.copyOf(containers, level * 2);
+                        }
+                        containers[level++] = (b == '{' ? OBJECT : 0) | (limited ? LIMITED : 0);
+                        expect = b == '{' ? EXPECT_KEY_OR_END : EXPECT_VALUE_OR_END;
+                        rowsKey = false;
+                        if (mask) {
+                            out = put(out, MASK_JSON, 0, MASK_JSON.length);
+                            maskLevel = level;
+                        } else if (emit) {
+                            out = put(out, b);
+                        }
+                        i++;
+                        continue;
+                    }
+                    if (level == 0) {
+                        return -1;
+                    }
+                    int valueEnd = b == '"' ? scanString(i, end) : scanLiteral(i, end);
+                    if (valueEnd < 0) {
+                        return -1;
+                    }
+                    if (mask) {
+                        out = put(out, MASK_JSON, 0, MASK_JSON.length);
+                    } else if (emit) {
+                        out = put(out, buf, i, valueEnd - i);
+                    }
+                    i = valueEnd;
+                    rowsKey = false;
+                    expect = EXPECT_COMMA_OR_END;
+                    continue;
+                case EXPECT_KEY:
+                case EXPECT_KEY_OR_END:
+                    if (b == '}' && expect == EXPECT_KEY_OR_END) {
+                        break;
+                    }
+                    if (b != '"') {
+                        return -1;
+                    }
+                    int keyEnd = scanString(i, end);
+                    if (keyEnd < 0) {
+                        return -1;
+                    }
+                    rowsKey = level == 1 && matches(i + 1, keyEnd - 1, "rows");
+                    sensitiveKey = emit && masker != null && masker.matches(buf, i + 1, keyEnd - 1);
+                    if (emit) {
+                        out = put(out, buf, i, keyEnd - i);
+                    }
+                    i = keyEnd;
+                    expect = EXPECT_COLON;
+                    continue;
+                case EXPECT_COLON:
+                    if (b != ':') {
+                        return -1;
+                    }
+                    if (emit) {
+                        out = put(out, b);
+                    }
+                    i++;
+                    expect = EXPECT_VALUE;
+                    continue;
+                default:
+                    if (b == ',') {
+                        int container = containers[level - 1];
+                        if ((container & LIMITED) != 0 && skipLevel == 0) {
+                            // 截断数组：跳过第一个元素之后的内容
+                            skipLevel = level;
+                        } else if (emit) {
+                            out = put(out, b);
+                        }
+                        i++;
+                        expect = (container & OBJECT) != 0 ? EXPECT_KEY : EXPECT_VALUE;
+                        continue;
+                    }
+                    break;
+            }
+            // 结束当前容器
+            boolean object = (containers[level - 1] & OBJECT) != 0;
+            if (b != (object ? '}' : ']')) {
+                return -1;
+            }
+            if (skipLevel == level) {
+                skipLevel = 0;
+            }
+            boolean emitEnd = write && skipLevel == 0 && maskLevel == 0;
+            if (maskLevel == level) {
+                maskLevel = 0;
+            }
+            level--;
+            if (emitEnd) {
+                out = put(out, b);
+            }
+            i++;
+            if (level == 0) {
+                done = true;
+            }
+            expect = EXPECT_COMMA_OR_END;
+        }
+        if (!done) {
+            return -1;
+        }
+        return write ? out : end;
+    }
+
+    /**
+     * 文本脱敏：敏感字段之后是 {@code =} 或 {@code :} 时，其值替换为掩码；结果写入 out 开始的位置
+     *
+     * @return 写入结束位置
+     */
+    private int maskText(int start, int end, int out) {
+        int state = 0;
+        int i = start;
+        while (i < end) {
+            byte b = buf[i++];
+            out = put(out, b);
+            state = masker.next(state, b);
+            if (!masker.isMatched(state)) {
+                continue;
+            }
+            int valueStart = skipBlank(i, end);
+            if (valueStart >= end || buf[valueStart] != '=' && buf[valueStart] != ':') {
+                continue;
+            }
+            valueStart = skipBlank(valueStart + 1, end);
+            int valueEnd = valueStart;
+            if (valueStart < end && (buf[valueStart] == '"' || buf[valueStart] == '\'')) {
+                // 带引号的值，保留引号
+                byte quote = buf[valueStart++];
+                valueEnd = valueStart;
+                while (valueEnd < end && buf[valueEnd] != quote) {
+                    valueEnd++;
+                }
+            } else {
+                while (valueEnd < end && !isValueEnd(buf[valueEnd])) {
+                    valueEnd++;
+                }
+            }
+            if (valueEnd == valueStart) {
+                continue;
+            }
+            out = put(out, buf, i, valueStart - i);
+            out = put(out, MASK_BYTES, 0, MASK_BYTES.length);
+            i = valueEnd;
+            state = 0;
+        }
+        return out;
+    }
+
+    private int skipBlank(int i, int end) {
+        while (i < end && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isValueEnd(byte b) {
+        switch (b) {
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+            case ',':
+            case '}':
+            case '&':
+            case ';':
+            case '<':
+            case '"':
+            case '\'':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 将 [from, to) 移到 start 处作为请求体结尾
+     */
+    private void moveBack(int start, int from, int to) {
+        System.arraycopy(buf, from, buf, start, to - from);
+        count = start + to - from;
+    }
+
+    private int put(int out, byte b) {
+        ensureCapacity(out + 1);
+        buf[out] = b;
+        return out + 1;
+    }
+
+    /**
+     * 复制到 out 位置（src 可以是扩容前的缓冲区）
+     */
+    private int put(int out, byte[] src, int from, int length) {
+        ensureCapacity(out + length);
+        System.arraycopy(src, from, buf, out, length);
+        return out + length;
+    }
+
+    /**
+     * 扫描字符串，返回结束引号之后的位置，不合法返回-1
+     */
+    private int scanString(int i, int end) {
+        for (int j = i + 1; j < end; j++) {
+            byte c = buf[j];
+            if (c == '"') {
+                return j + 1;
+            }
+            if (c == '\\') {
+                if (++j >= end) {
+                    return -1;
+                }
+                c = buf[j];
+                if (c == 'u') {
+                    if (j + 4 >= end) {
+                        return -1;
+                    }
+                    for (int k = 1; k <= 4; k++) {
+                        if (Character.digit(buf[j + k], 16) < 0) {
+                            return -1;
+                        }
+                    }
+                    j += 4;
+                } else if (c != '"' && c != '\\' && c != '/' && c != 'b' && c != 'f' && c != 'n' && c != 'r'
+                        && c != 't') {
+                    return -1;
+                }
+            } else if (c >= 0 && c < 0x20) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 扫描 true / false / null 或数字，返回结束位置，不合法返回-1
+     */
+    private int scanLiteral(int i, int end) {
+        int j = i;
+        while (j < end) {
+            byte c = buf[j];
+            if (c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '-' || c == '+'
+                    || c == '.') {
+                j++;
+            } else {
+                break;
+            }
+        }
+        if (j == i) {
+            return -1;
+        }
+        byte first = buf[i];
+        if (first == '-' || first >= '0' && first <= '9') {
+            for (int k = i + 1; k < j; k++) {
+                byte c = buf[k];
+                if (!(c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '-' || c == '+')) {
+                    return -1;
+                }
+            }
+            return j;
+        }
+        return matches(i, j, "true") || matches(i, j, "false") || matches(i, j, "null") ? j : -1;
+    }
+
+    private boolean matches(int from, int to, String literal) {
+        if (to - from != literal.length()) {
+            return false;
+        }
+        for (int k = 0; k < literal.length(); k++) {
+            if (buf[from + k] != literal.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUtf8(Charset charset) {
+        return charset == null || StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.ch.cloud.gateway.utils;
+
+import com.ch.cloud.gateway.pojo.PermissionClass;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.http.HttpMethod;
+
+/**
+ * 请求权限分类索引
+ * <p>
+ * 由白名单、临时授权码、Cookie、登录权限匹配器组合而成，一次完成请求分类；任一权限列表重新加载后重建。
+ * 按 (method, path) 精确记忆分类结果（有界LRU），热点URL不再执行路径匹配；记忆随索引重建一起丢弃。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class RouteClassIndex {
+
+    private final PermissionMatcher white;
+
+    private final PermissionMatcher temp;
+
+    private final PermissionMatcher cookie;
+
+    private final PermissionMatcher login;
+
+    /**
+     * (method, path) -> 分类结果，为null时不记忆
+     */
+    private final Cache<String, Classification> memo;
+
+    /**
+     * @param memoSize 记忆的 (method, path) 最大数量，0表示不记忆
+     */
+    public RouteClassIndex(PermissionMatcher white, PermissionMatcher temp, PermissionMatcher cookie,
+            PermissionMatcher login, long memoSize) {
+        this.white = white;
+        this.temp = temp;
+        this.cookie = cookie;
+        this.login = login;
+        this.memo = memoSize > 0 ? CacheBuilder.newBuilder().maximumSize(memoSize).build() : null;
+    }
+
+    /**
+     * 请求分类
+     *
+     * @param path   请求路径
+     * @param method 请求方法
+     * @return 优先级最高的分类，都不匹配时为 {@link PermissionClass#ROLE}
+     */
+    public PermissionClass classify(String path, HttpMethod method) {
+        return lookup(path, method).permissionClass;
+    }
+
+    /**
+     * 是否支持Cookie token
+     */
+    public boolean isCookieSupported(String path, HttpMethod method) {
+        return lookup(path, method).cookieSupported;
+    }
+
+    private Classification lookup(String path, HttpMethod method) {
+        if (memo == null) {
+            return Classification.of(match(path, method), cookie.matches(path, method));
+        }
+        String key = method == null ? path : method.name() + ' ' + path;
+        Classification classification = memo.getIfPresent(key);
+        if (classification == null) {
+            classification = Classification.of(match(path, method), cookie.matches(path, method));
+            memo.put(key, classification);
+        }
+        return classification;
+    }
+
+    private PermissionClass match(String path, HttpMethod method) {
+        if (white.matches(path, method)) {
+            return PermissionClass.WHITE;
+        }
+        if (temp.matches(path, method)) {
+            return PermissionClass.TEMP;
+        }
+        if (login.matches(path, method)) {
+            return PermissionClass.LOGIN;
+        }
+        return PermissionClass.ROLE;
+    }
+
+    /**
+     * 是否由这些匹配器构建，用于判断权限列表是否已重新加载
+     */
+    public boolean isBuiltFrom(PermissionMatcher white, PermissionMatcher temp, PermissionMatcher cookie,
+            PermissionMatcher login) {
+        return this.white == white && this.temp == temp && this.cookie == cookie && this.login == login;
+    }
+
+    /**
+     * 分类结果，所有组合预先创建
+     */
+    private static final class Classification {
+
+        private static final Classification[] VALUES = new Classification[PermissionClass.values().length * 2];
+
+        static {
+            for (PermissionClass permissionClass : PermissionClass.values()) {
+                VALUES[permissionClass.ordinal() * 2] = new Classification(permissionClass, false);
+                VALUES[permissionClass.ordinal() * 2 + 1] = new Classification(permissionClass, true);
+            }
+        }
+
+        private final PermissionClass permissionClass;
+
+        private final boolean cookieSupported;
+
+        private Classification(PermissionClass permissionClass, boolean cookieSupported) {
+            this.permissionClass = permissionClass;
+            this.cookieSupported = cookieSupported;
+        }
+
+        static Classification of(PermissionClass permissionClass, boolean cookieSupported) {
+            return VALUES[permissionClass.ordinal() * 2 + (cookieSupported ? 1 : 0)];
+        }
+    }
+}
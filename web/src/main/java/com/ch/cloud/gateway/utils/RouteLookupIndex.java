@@ -0,0 +1,209 @@
+package com.ch.cloud.gateway.utils;
+
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 路由查找索引
+ * <p>
+ * 按路由定义中 Path 断言的字面量前缀（第一个含通配符、变量的段之前的部分）建立按路径段的前缀树，
+ * 没有 Path 断言时按 Host 断言的精确主机名索引，无法索引的路由总是作为候选。
+ * 查找时只返回可能匹配的候选路由（保持原有顺序），由调用方继续执行完整的断言，查找耗时与路由数量无关。
+ * 实例不可变，可在多线程间共享。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class RouteLookupIndex {
+
+    private static final String PATH_PREDICATE = "Path";
+
+    private static final String HOST_PREDICATE = "Host";
+
+    private static final String SEPARATOR = "/";
+
+    private final List<Route> routes;
+
+    private final Node root;
+
+    private final Map<String, BitSet> hosts;
+
+    private final BitSet unindexed;
+
+    private RouteLookupIndex(List<Route> routes, Node root, Map<String, BitSet> hosts, BitSet unindexed) {
+        this.routes = routes;
+        this.root = root;
+        this.hosts = hosts;
+        this.unindexed = unindexed;
+    }
+
+    /**
+     * 建立索引
+     *
+     * @param routes      排序后的路由
+     * @param definitions 路由ID -> 路由定义，没有定义的路由不索引
+     */
+    public static RouteLookupIndex build(List<Route> routes, Map<String, RouteDefinition> definitions) {
+        Node root = new Node();
+        Map<String, BitSet> hosts = new HashMap<>();
+        BitSet unindexed = new BitSet(routes.size());
+        for (int i = 0; i < routes.size(); i++) {
+            RouteDefinition definition = definitions.get(routes.get(i).getId());
+            List<String> paths = definition == null ? null : patterns(definition, PATH_PREDICATE);
+            if (paths != null && insertPaths(root, paths, i)) {
+                continue;
+            }
+            List<String> hostPatterns = definition == null ? null : patterns(definition, HOST_PREDICATE);
+            if (paths == null && hostPatterns != null && isLiteral(hostPatterns)) {
+                for (String host : hostPatterns) {
+                    hosts.computeIfAbsent(host, k -> new BitSet()).set(i);
+                }
+                continue;
+            }
+            unindexed.set(i);
+        }
+        return new RouteLookupIndex(Collections.unmodifiableList(new ArrayList<>(routes)), root, hosts, unindexed);
+    }
+
+    /**
+     * 可能匹配的候选路由，保持原有顺序
+     *
+     * @param path 请求路径（不含contextPath）
+     * @param host Host请求头
+     */
+    public List<Route> candidates(String path, String host) {
+        if (path.indexOf('%') >= 0 || path.indexOf(';') >= 0) {
+            // 断言按解码、去掉矩阵参数后的路径段匹配，这里不再处理，全部作为候选
+            return routes;
+        }
+        BitSet matched = (BitSet) unindexed.clone();
+        Node node = root;
+        node.collect(matched);
+        int start = 0;
+        int length = path.length();
+        while (node != null && start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = node.child(path.substring(start, end));
+                if (node != null) {
+                    node.collect(matched);
+                }
+            }
+            start = end + 1;
+        }
+        if (host != null) {
+            BitSet hostMatched = hosts.get(host);
+            if (hostMatched != null) {
+                matched.or(hostMatched);
+            }
+        }
+        if (matched.cardinality() == routes.size()) {
+            return routes;
+        }
+        List<Route> candidates = new ArrayList<>(matched.cardinality());
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            candidates.add(routes.get(i));
+        }
+        return candidates;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * 第一个指定名称的断言的所有模式，没有该断言时为null
+     */
+    private static List<String> patterns(RouteDefinition definition, String name) {
+        for (PredicateDefinition predicate : definition.getPredicates()) {
+            if (!name.equalsIgnoreCase(predicate.getName())) {
+                continue;
+            }
+            List<String> patterns = new ArrayList<>();
+            predicate.getArgs().forEach((key, value) -> {
+                if (value == null || "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                    // matchTrailingSlash 等开关参数
+                    return;
+                }
+                for (String pattern : value.split(",")) {
+                    patterns.add(pattern.trim());
+                }
+            });
+            return patterns;
+        }
+        return null;
+    }
+
+    private static boolean insertPaths(Node root, List<String> paths, int index) {
+        if (paths.isEmpty()) {
+            return false;
+        }
+        for (String path : paths) {
+            if (!path.startsWith(SEPARATOR)) {
+                return false;
+            }
+        }
+        for (String path : paths) {
+            Node node = root;
+            for (String segment : path.split(SEPARATOR)) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+                if (!isLiteral(segment)) {
+                    break;
+                }
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+            node.routes.set(index);
+        }
+        return true;
+    }
+
+    private static boolean isLiteral(List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return false;
+        }
+        for (String pattern : patterns) {
+            if (pattern.isEmpty() || !isLiteral(pattern)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*' || c == '?' || c == '{' || c == '}' || c == '\\' || c == '#' || c == '$') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        private final BitSet routes = new BitSet();
+
+        Node child(String segment) {
+            return children.get(segment);
+        }
+
+        void collect(BitSet matched) {
+            matched.or(routes);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.ch.cloud.gateway.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * 敏感字段匹配器
+ * <p>
+ * 所有敏感字段一次编译为 Aho-Corasick 自动机（展开为按字节跳转的状态表，忽略ASCII大小写），
+ * 字段名中包含任一敏感字段即视为敏感；也可以在文本中逐字节推进，一遍扫描找出所有敏感字段。
+ * 编译后只读，可多线程共享。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class SensitiveMasker {
+
+    private static final int ALPHABET = 128;
+
+    private final Collection<String> fields;
+
+    /**
+     * 状态跳转表：transitions[state * ALPHABET + byte]
+     */
+    private final int[] transitions;
+
+    private final boolean[] matched;
+
+    private SensitiveMasker(Collection<String> fields, int[] transitions, boolean[] matched) {
+        this.fields = fields;
+        this.transitions = transitions;
+        this.matched = matched;
+    }
+
+    /**
+     * 编译敏感字段
+     */
+    public static SensitiveMasker compile(Collection<String> fields) {
+        int maxStates = 1;
+        for (String field : fields) {
+            maxStates += field.length();
+        }
+        int[] trie = new int[maxStates * ALPHABET];
+        Arrays.fill(trie, -1);
+        boolean[] matched = new boolean[maxStates];
+        int states = 1;
+        for (String field : fields) {
+            byte[] bytes = field.trim().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length == 0) {
+                continue;
+            }
+            int state = 0;
+            for (byte b : bytes) {
+                int index = state * ALPHABET + (b & 0x7f);
+                if (trie[index] < 0) {
+                    trie[index] = states++;
+                }
+                state = trie[index];
+            }
+            matched[state] = true;
+        }
+
+        // 按层次计算失配跳转，并把缺失的跳转补全为失配状态的跳转
+        int[] transitions = Arrays.copyOf(trie, states * ALPHABET);
+        int[] fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = transitions[c];
+            if (next < 0) {
+                transitions[c] = 0;
+            } else {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            matched[state] |= matched[fail[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int index = state * ALPHABET + c;
+                int next = transitions[index];
+                int fallback = transitions[fail[state] * ALPHABET + c];
+                if (next < 0) {
+                    transitions[index] = fallback;
+                } else {
+                    fail[next] = fallback;
+                    queue.add(next);
+                }
+            }
+        }
+        // 大写字母与小写字母跳转相同
+        for (int state = 0; state < states; state++) {
+            for (int c = 'A'; c <= 'Z'; c++) {
+                transitions[state * ALPHABET + c] = transitions[state * ALPHABET + (c | 0x20)];
+            }
+        }
+        return new SensitiveMasker(fields, transitions, Arrays.copyOf(matched, states));
+    }
+
+    /**
+     * 读入一个字节后的状态，初始状态为0
+     */
+    public int next(int state, byte b) {
+        return b < 0 ? 0 : transitions[state * ALPHABET + b];
+    }
+
+    /**
+     * 该状态是否刚好读完一个敏感字段
+     */
+    public boolean isMatched(int state) {
+        return matched[state];
+    }
+
+    /**
+     * 字段名是否包含敏感字段
+     */
+    public boolean matches(String name) {
+        int state = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            state = c < ALPHABET ? transitions[state * ALPHABET + c] : 0;
+            if (matched[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * buf[from, to) 是否包含敏感字段
+     */
+    public boolean matches(byte[] buf, int from, int to) {
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            state = next(state, buf[i]);
+            if (matched[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否由该字段列表编译，用于判断配置是否已刷新
+     */
+    public boolean isCompiledFrom(Collection<String> fields) {
+        return this.fields == fields;
+    }
+}
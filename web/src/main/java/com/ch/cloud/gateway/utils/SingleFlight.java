@@ -0,0 +1,56 @@
+package com.ch.cloud.gateway.utils;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并（single-flight）
+ * <p>
+ * 同一个key同一时刻只会执行一次加载，其它并发请求订阅同一个结果；加载结束（成功、失败或取消）后移除，
+ * 下一次请求重新加载。用于缓存未命中时防止大量并发请求同时打到远程服务。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Mono<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载，同一个key正在加载时直接复用加载结果
+     *
+     * @param key    key
+     * @param loader 加载逻辑
+     * @return 加载结果
+     */
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> calls.computeIfAbsent(key, k -> new Call(k, loader).mono));
+    }
+
+    /**
+     * 正在加载的key数量
+     */
+    public int inflight() {
+        return calls.size();
+    }
+
+    private final class Call {
+
+        private final K key;
+
+        private final Mono<V> mono;
+
+        private Call(K key, Supplier<Mono<V>> loader) {
+            this.key = key;
+            this.mono = Mono.defer(loader).doFinally(this::release).cache();
+        }
+
+        private void release(SignalType signal) {
+            calls.remove(key, mono);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.ch.cloud.gateway.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * <p>
+ * 按 GCRA 算法只保存下一个令牌的理论到达时间，CAS 更新；桶容量为每秒令牌数（允许1秒的突发）。
+ *
+ * @author zhimi
+ * @since 2024-1-1
+ */
+public final class TokenBucket {
+
+    /**
+     * 每个令牌的间隔（纳秒）
+     */
+    private final long interval;
+
+    /**
+     * 桶容量对应的时长（纳秒）
+     */
+    private final long burst;
+
+    private final AtomicLong arrival;
+
+    public TokenBucket(int permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.interval = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.burst = interval * permitsPerSecond;
+        this.arrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 获取一个令牌，没有令牌时立即返回false
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        for (; ; ) {
+            long current = arrival.get();
+            long next = Math.max(current - now, 0) + interval;
+            if (next > burst) {
+                return false;
+            }
+            if (arrival.compareAndSet(current, now + next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.alibaba.fastjson2.JSON;
 import com.ch.Constants;
 import com.ch.cloud.gateway.pojo.CacheType;
 import com.ch.cloud.gateway.service.FeignClientHolder;
+import com.ch.cloud.gateway.service.JwtTokenVerifier;
 import com.ch.cloud.sso.pojo.UserInfo;
 import com.ch.cloud.upms.dto.AuthCodePermissionDTO;
 import com.ch.cloud.upms.dto.RoleDto;
@@ -12,6 +13,7 @@ import com.ch.result.Result;
 import com.ch.utils.EncryptUtils;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
 import org.redisson.api.RBucket;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.StringCodec;
@@ -25,10 +27,6 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -46,73 +44,94 @@ public class UserAuthUtils {
     @Setter
     private static RedissonClient redissonClient;
 
+    @Setter
+    private static JwtTokenVerifier jwtTokenVerifier;
+
+    /**
+     * 同一个token同一时刻只向单点登录系统请求一次
+     */
+    private static final SingleFlight<String, Result<UserInfo>> USER_LOADS = new SingleFlight<>();
+
     /**
-     * 获取用户信息
+     * 获取用户信息（缓存命中时只访问一次Redis）
      */
-    public static Result<UserInfo> getUserInfo(String token) {
+    public static Mono<Result<UserInfo>> getUserInfo(String token) {
+        if (jwtTokenVerifier != null && jwtTokenVerifier.supports(token)) {
+            // 签名token本地验签，不访问Redis和单点登录系统
+            return Mono.just(jwtTokenVerifier.verify(token));
+        }
         String md5 = EncryptUtils.md5(token);
         RBucket<UserInfo> userBucket = redissonClient.getBucket(CacheType.GATEWAY_TOKEN.key(md5),
                 JsonJacksonCodec.INSTANCE);
-        Result<UserInfo> userResult = Result.failed();
-
-        if (!userBucket.isExists()) {
-            try {
-                Future<Result<UserInfo>> f = feignClientHolder.tokenInfo(token);
-                userResult = f.get();
-            } catch (InterruptedException | ExecutionException e) {
-                log.error("[单点登录系统]调用登录鉴权Feign失败", e);
-                userResult.setCode("100");
-                userResult.setMessage("[单点登录]Feign调用登录鉴权失败");
-            }
+        return Mono.fromCompletionStage(userBucket::getAsync).map(user -> {
+            Result<UserInfo> userResult = Result.success(user);
+            return userResult;
+        }).onErrorResume(e -> {
+            log.error("read user cache error!", e);
+            Result<UserInfo> userResult = Result.error(PubError.INVALID, "网关解析Token信息缓存错误");
+            return Mono.just(userResult);
+        }).switchIfEmpty(Mono.defer(() -> USER_LOADS.execute(md5, () -> loadUserInfo(token, md5))));
+    }
 
+    /**
+     * 从单点登录系统获取用户信息并写入缓存
+     * <p>
+     * 用户最新token摘要与用户信息在一个管道批量命令中写入（一次往返），旧token的用户信息随后异步删除。
+     */
+    private static Mono<Result<UserInfo>> loadUserInfo(String token, String md5) {
+        return feignClientHolder.tokenInfo(token).onErrorResume(e -> {
+            log.error("[单点登录系统]调用登录鉴权Feign失败", e);
+            Result<UserInfo> userResult = Result.failed();
+            userResult.setCode("100");
+            userResult.setMessage("[单点登录]Feign调用登录鉴权失败");
+            return Mono.just(userResult);
+        }).flatMap(userResult -> {
             if (!userResult.isSuccess()) {
-                return userResult;
+                return Mono.just(userResult);
             }
-
             UserInfo user = userResult.get();
-            RBucket<String> tokenBucket = redissonClient.getBucket(CacheType.GATEWAY_USER.key(user.getUsername()),
-                    StringCodec.INSTANCE);
-            if (tokenBucket.isExists()) {
-                redissonClient.getBucket(CacheType.GATEWAY_TOKEN.key(tokenBucket.get())).delete();
-            }
-            tokenBucket.set(md5);
-            Duration duration = Duration.of(user.getExpireAt() - System.currentTimeMillis(), ChronoUnit.MILLIS);
-            //            userBucket.set(user, duration);
-            userBucket.set(user, duration.getSeconds(), TimeUnit.SECONDS);
-        } else {
-            try {
-                return Result.success(userBucket.get());
-            } catch (Exception e) {
-                log.error("read user cache error!", e);
-                return Result.error(PubError.INVALID, "网关解析Token信息缓存错误");
-            }
-        }
-        return userResult;
+            long ttl = Math.max(1, user.getExpireAt() - System.currentTimeMillis());
+            // 两个key在集群中位于不同slot，使用普通管道批量命令（不需要原子性，旧token随后异步删除）
+            RBatch batch = redissonClient.createBatch();
+            batch.getBucket(CacheType.GATEWAY_USER.key(user.getUsername()), StringCodec.INSTANCE).getAndSetAsync(md5);
+            batch.getBucket(CacheType.GATEWAY_TOKEN.key(md5), JsonJacksonCodec.INSTANCE)
+                    .setAsync(user, ttl, TimeUnit.MILLISECONDS);
+            return Mono.fromCompletionStage(batch::executeAsync).doOnNext(result -> {
+                Object oldMd5 = result.getResponses().get(0);
+                if (oldMd5 != null && !md5.equals(oldMd5)) {
+                    redissonClient.getBucket(CacheType.GATEWAY_TOKEN.key(oldMd5.toString())).deleteAsync();
+                }
+            }).thenReturn(userResult);
+        });
     }
 
     /**
-     * 获取授权码信息
+     * 获取授权码信息，调用失败时返回失败结果，授权码不存在时返回成功结果且数据为空
      */
-    public static AuthCodePermissionDTO getAuthCodeInfo(String code) {
-
-        try {
-            Future<AuthCodePermissionDTO> future = feignClientHolder.authCodePermissions(code);
-            return future.get();
-        } catch (Exception e) {
+    public static Mono<Result<AuthCodePermissionDTO>> getAuthCodeInfo(String code) {
+        return feignClientHolder.authCodePermissions(code).onErrorResume(e -> {
             log.error("[用户权限系统]调用授权码鉴权Feign失败", e);
-        }
-        return null;
+            Result<AuthCodePermissionDTO> result = Result.failed();
+            result.setMessage("[用户权限系统]Feign调用授权码鉴权失败");
+            return Mono.just(result);
+        });
     }
 
     /**
      * 将用户信息添加到请求头
+     *
+     * @param cookieToken 来自Cookie的token，不为空时一并写入请求头
      */
     public static Mono<Void> toUser(ServerWebExchange exchange, GatewayFilterChain chain, UserInfo user,
-            boolean skipAfter) {
-        ServerHttpRequest mutableReq = exchange.getRequest().mutate().header(Constants.CURRENT_USER, user.getUserId())
+            String cookieToken) {
+        ServerHttpRequest.Builder builder = exchange.getRequest().mutate();
+        if (cookieToken != null) {
+            builder.header(Constants.X_TOKEN, cookieToken);
+        }
+        ServerHttpRequest mutableReq = builder.header(Constants.CURRENT_USER, user.getUserId())
                 .header(Constants.X_TOKEN_USER, user.getUsername())
                 .header(Constants.X_TOKEN_TENANT, user.getTenantId() == null ? "" : user.getTenantId().toString())
-                .header(GatewayConstants.FILTER_HEADER_SKIP_AFTER, skipAfter ? "true" : "false").build();
+                .build();
         ServerWebExchange mutableExchange = exchange.mutate().request(mutableReq).build();
         return chain.filter(mutableExchange);
     }
@@ -135,46 +154,36 @@ public class UserAuthUtils {
         return resp.writeWith(Flux.just(buffer));
     }
 
-    public static Boolean renewToken(String token) {
-        try {
-            Future<Boolean> booleanFuture = feignClientHolder.tokenRenew(token);
-            return booleanFuture.get();
-        } catch (Exception e) {
+    public static Mono<Boolean> renewToken(String token) {
+        return feignClientHolder.tokenRenew(token).defaultIfEmpty(false).onErrorResume(e -> {
             log.error("[单点登录系统]调用Token续期失败", e);
-        }
-        return false;
+            return Mono.just(false);
+        });
     }
 
-    public static String refreshToken(String token,String refreshToken) {
-        try {
-            Future<String> future = feignClientHolder.refreshToken(token,refreshToken);
-            return future.get();
-        } catch (Exception e) {
+    public static Mono<String> refreshToken(String token, String refreshToken) {
+        return feignClientHolder.refreshToken(token, refreshToken).onErrorResume(e -> {
             log.error("[单点登录系统]刷新Token", e);
-        }
-        return null;
+            return Mono.empty();
+        });
     }
 
-    public static Boolean validateToken(String token) {
-        try {
-            Future<Boolean> booleanFuture = feignClientHolder.tokenValid(token);
-            return booleanFuture.get();
-        } catch (Exception e) {
+    public static Mono<Boolean> validateToken(String token) {
+        return feignClientHolder.tokenValid(token).defaultIfEmpty(false).onErrorResume(e -> {
             log.error("[单点登录系统]验证Token", e);
-        }
-        return false;
+            return Mono.just(false);
+        });
     }
 
-    public static RoleDto getRoleInfo(String username, Long roleId) {
-        try {
-            Future<RoleDto> future = feignClientHolder.userRole(username, roleId);
-            return future.get();
-        } catch (Exception e) {
+    public static Mono<RoleDto> getRoleInfo(String username, Long roleId) {
+        return feignClientHolder.userRole(username, roleId).onErrorResume(e -> {
             log.error("[用户权限系统]调用角色信息失败", e);
-        }
-        RoleDto roleDto = new RoleDto();
-        roleDto.setId(-1L);
-        roleDto.setName(roleId + "");
-        return roleDto;
+            return Mono.empty();
+        }).switchIfEmpty(Mono.fromSupplier(() -> {
+            RoleDto roleDto = new RoleDto();
+            roleDto.setId(-1L);
+            roleDto.setName(roleId + "");
+            return roleDto;
+        }));
     }
 }
@@ -0,0 +1,61 @@
+package com.ch.cloud.gateway;
+
+import com.ch.cloud.gateway.utils.BoundedRingBuffer;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedRingBufferTests {
+
+    @Test
+    public void offerPoll() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void concurrentDropOldest() throws InterruptedException {
+        BoundedRingBuffer<Long> buffer = new BoundedRingBuffer<>(64);
+        int producers = 4;
+        long count = 100000;
+        AtomicLong sum = new AtomicLong();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                for (long i = 1; i <= count; i++) {
+                    while (!buffer.offer(i)) {
+                        Long oldest = buffer.poll();
+                        if (oldest != null) {
+                            sum.addAndGet(oldest);
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Long value;
+        while ((value = buffer.poll()) != null) {
+            sum.addAndGet(value);
+        }
+        // 每个元素恰好被取出一次
+        assertEquals(producers * count * (count + 1) / 2, sum.get());
+    }
+}
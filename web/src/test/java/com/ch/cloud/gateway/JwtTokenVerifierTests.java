@@ -0,0 +1,218 @@
+package com.ch.cloud.gateway;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.ch.cloud.gateway.conf.JwtConfig;
+import com.ch.cloud.gateway.service.JwtTokenVerifier;
+import com.ch.cloud.gateway.service.TokenRevocationService;
+import com.ch.cloud.sso.pojo.UserInfo;
+import com.ch.result.Result;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JwtTokenVerifierTests {
+
+    private static KeyPair rsa;
+
+    private static KeyPair ec;
+
+    private JwtTokenVerifier verifier;
+
+    private TokenRevocationService revocation;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        rsa = rsaGenerator.generateKeyPair();
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        ec = ecGenerator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() {
+        JwtConfig config = new JwtConfig();
+        config.setEnabled(true);
+        config.getPublicKeys().put("rsa", Base64.getEncoder().encodeToString(rsa.getPublic().getEncoded()));
+        config.getPublicKeys().put("ec", Base64.getEncoder().encodeToString(ec.getPublic().getEncoded()));
+        revocation = new TokenRevocationService();
+        ReflectionTestUtils.setField(revocation, "config", config);
+        verifier = new JwtTokenVerifier();
+        ReflectionTestUtils.setField(verifier, "config", config);
+        ReflectionTestUtils.setField(verifier, "tokenRevocationService", revocation);
+        verifier.init();
+    }
+
+    @Test
+    public void acceptSigned() throws Exception {
+        Result<UserInfo> result = verifier.verify(sign(header("RS256", "rsa"), claims(), "SHA256withRSA", rsa));
+        assertTrue(result.getMessage(), result.isSuccess());
+        assertEquals("alice", result.get().getUsername());
+
+        result = verifier.verify(sign(header("ES256", "ec"), claims(), "SHA256withECDSA", ec));
+        assertTrue(result.getMessage(), result.isSuccess());
+        assertEquals("alice", result.get().getUsername());
+    }
+
+    @Test
+    public void rejectNone() {
+        String unsigned = encode(header("none", "rsa")) + '.' + encode(claims());
+        assertFalse(verifier.verify(unsigned + '.').isSuccess());
+        assertFalse(verifier.verify(unsigned + ".AAAA").isSuccess());
+    }
+
+    @Test
+    public void rejectHmac() throws Exception {
+        // 以公钥作为HMAC密钥伪造签名（算法替换攻击）
+        for (String alg : new String[]{"HS256", "HS384", "HS512"}) {
+            String content = encode(header(alg, "rsa")) + '.' + encode(claims());
+            String macAlgorithm = "Hmac" + "SHA" + alg.substring(2);
+            Mac mac = Mac.getInstance(macAlgorithm);
+            mac.init(new SecretKeySpec(rsa.getPublic().getEncoded(), macAlgorithm));
+            byte[] sign = mac.doFinal(content.getBytes(StandardCharsets.US_ASCII));
+            assertFalse(alg, verifier.verify(content + '.' + base64(sign)).isSuccess());
+        }
+    }
+
+    @Test
+    public void rejectKeyTypeMismatch() throws Exception {
+        // alg与kid对应的公钥类型不一致
+        assertFalse(verifier.verify(sign(header("ES256", "rsa"), claims(), "SHA256withECDSA", ec)).isSuccess());
+        assertFalse(verifier.verify(sign(header("RS256", "ec"), claims(), "SHA256withRSA", rsa)).isSuccess());
+        // 签名私钥与kid对应的公钥不匹配
+        KeyPair other = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        assertFalse(verifier.verify(sign(header("RS256", "rsa"), claims(), "SHA256withRSA", other)).isSuccess());
+    }
+
+    @Test
+    public void rejectMissingClaims() throws Exception {
+        JSONObject claims = claims();
+        claims.remove("exp");
+        Result<UserInfo> result = verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa));
+        assertFalse(result.isSuccess());
+        assertEquals("Token缺少过期时间", result.getMessage());
+
+        claims = claims();
+        claims.remove("iat");
+        result = verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa));
+        assertFalse(result.isSuccess());
+        assertEquals("Token缺少签发时间", result.getMessage());
+    }
+
+    @Test
+    public void clockSkew() throws Exception {
+        long now = seconds();
+        // 默认允许30秒时钟偏差
+        JSONObject claims = claims();
+        claims.put("exp", now - 10);
+        assertTrue(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+        claims.put("exp", now - 60);
+        assertFalse(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+
+        claims = claims();
+        claims.put("nbf", now + 10);
+        assertTrue(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+        claims.put("nbf", now + 60);
+        assertFalse(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+    }
+
+    @Test
+    public void rejectIssuedBeforeRevocation() throws Exception {
+        long revokedAt = System.currentTimeMillis();
+        ReflectionTestUtils.invokeMethod(revocation, "put", "alice", revokedAt);
+        long revokedSecond = TimeUnit.MILLISECONDS.toSeconds(revokedAt);
+
+        JSONObject claims = claims();
+        claims.put("iat", revokedSecond - 1);
+        Result<UserInfo> result = verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa));
+        assertFalse(result.isSuccess());
+        assertEquals("Token已失效", result.getMessage());
+
+        // 吊销的同一秒内签发视为吊销后签发
+        claims.put("iat", revokedSecond);
+        assertTrue(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+        claims.put("iat", revokedSecond + 1);
+        assertTrue(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+
+        // 其他用户不受影响
+        claims.put("sub", "bob");
+        claims.put("iat", revokedSecond - 1);
+        assertTrue(verifier.verify(sign(header("RS256", "rsa"), claims, "SHA256withRSA", rsa)).isSuccess());
+    }
+
+    private static JSONObject header(String alg, String kid) {
+        JSONObject header = new JSONObject();
+        header.put("alg", alg);
+        header.put("kid", kid);
+        return header;
+    }
+
+    private static JSONObject claims() {
+        long now = seconds();
+        JSONObject claims = new JSONObject();
+        claims.put("sub", "alice");
+        claims.put("userId", 1);
+        claims.put("iat", now);
+        claims.put("exp", now + 3600);
+        return claims;
+    }
+
+    private static String sign(JSONObject header, JSONObject claims, String algorithm, KeyPair keyPair)
+            throws Exception {
+        String content = encode(header) + '.' + encode(claims);
+        PrivateKey key = keyPair.getPrivate();
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(key);
+        signature.update(content.getBytes(StandardCharsets.US_ASCII));
+        byte[] sign = signature.sign();
+        if ("EC".equals(key.getAlgorithm())) {
+            sign = derToRaw(sign, 32);
+        }
+        return content + '.' + base64(sign);
+    }
+
+    /**
+     * JDK的ECDSA签名为DER编码，JWS使用 R||S 定长格式
+     */
+    private static byte[] derToRaw(byte[] der, int size) {
+        byte[] raw = new byte[size * 2];
+        int pos = (der[1] & 0x80) != 0 ? 3 : 2;
+        for (int i = 0; i < 2; i++) {
+            int len = der[pos + 1];
+            int start = pos + 2;
+            int copy = Math.min(len, size);
+            System.arraycopy(der, start + len - copy, raw, i * size + size - copy, copy);
+            pos = start + len;
+        }
+        return raw;
+    }
+
+    private static String encode(JSONObject json) {
+        return base64(json.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String base64(byte[] data) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+    }
+
+    private static long seconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+}
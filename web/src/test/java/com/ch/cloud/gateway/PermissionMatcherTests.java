@@ -0,0 +1,68 @@
+package com.ch.cloud.gateway;
+
+import com.ch.cloud.gateway.utils.PermissionMatcher;
+import com.ch.cloud.upms.dto.PermissionDto;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionMatcherTests {
+
+    private static final String[][] CASES = {
+            {"/user/{page:[0-9]+}/{size:[0-9]+}", "/user/12/10"},
+            {"/user/{id:[0-9]+}", "/user/a"},
+            {"/upms/department/{id:[0-9]+}/positions/{name}", "/upms/department/1/positions/b"},
+            {"/{svcName}/v2/api-docs", "/upms/v2/api-docs"},
+            {"/upms/department/{id:[0-9]+}/tenants/*", "/upms/department/4/tenants/"},
+            {"/wiki/upload/{dir:(ue|images|article)}/**", "/wiki/upload/article/a/1.jpg"},
+            {"/**/download/**", "/a/b/download/x"},
+            {"/**/download/**", "/download"},
+            {"/a/**", "/a"},
+            {"/a/**", "/a/"},
+            {"/**", "/"},
+            {"/a/b", "/a/b/"},
+            {"/a/b/", "/a/b/"},
+            {"/a/*.js", "/a/x.js"},
+            {"/a/*.js", "/a/x.css"},
+            {"/a/**/b", "/a/x/y/b"},
+            {"/a/**/b", "/a/x/y/c"},
+            {"/a", "/a/b"},
+            {"/a/?", "/a/bc"},
+    };
+
+    @Test
+    public void sameAsAntPathMatcher() {
+        AntPathMatcher pathMatcher = new AntPathMatcher("/");
+        for (String[] c : CASES) {
+            PermissionMatcher matcher = PermissionMatcher.compile(Collections.singletonList(permission(c[0], null)));
+            assertEquals(c[0] + " -> " + c[1], pathMatcher.match(c[0], c[1]), matcher.matches(c[1], HttpMethod.GET));
+        }
+    }
+
+    @Test
+    public void methods() {
+        List<PermissionDto> list = new ArrayList<>();
+        list.add(permission("/upms/user/{id}", "DELETE"));
+        list.add(permission("/upms/user/**", "GET"));
+        PermissionMatcher matcher = PermissionMatcher.compile(list);
+        assertTrue(matcher.matches("/upms/user/1", HttpMethod.DELETE));
+        assertTrue(matcher.matches("/upms/user/1", HttpMethod.GET));
+        assertFalse(matcher.matches("/upms/user/1", HttpMethod.POST));
+        assertFalse(PermissionMatcher.EMPTY.matches("/upms/user/1", HttpMethod.GET));
+    }
+
+    private static PermissionDto permission(String url, String method) {
+        PermissionDto dto = new PermissionDto();
+        dto.setUrl(url);
+        dto.setMethod(method);
+        return dto;
+    }
+}
@@ -0,0 +1,84 @@
+package com.ch.cloud.gateway;
+
+import com.ch.cloud.gateway.utils.RequestLogWriter;
+import com.ch.cloud.gateway.utils.SensitiveMasker;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestLogWriterTests {
+
+    private static final SensitiveMasker MASKER = SensitiveMasker.compile(Arrays.asList("password", "token", "key"));
+
+    private static String write(String body, boolean truncateArrays) {
+        return write(body, truncateArrays, null);
+    }
+
+    private static String write(String body, boolean truncateArrays, SensitiveMasker masker) {
+        RequestLogWriter writer = RequestLogWriter.obtain(masker);
+        writer.beginObject().name("response").beginObject().name("status").value(200).name("body");
+        int start = writer.beginBody();
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        writer.body(data, 0, data.length);
+        writer.endBody(start, StandardCharsets.UTF_8, truncateArrays);
+        writer.endObject().endObject();
+        String result = writer.toString();
+        writer.recycle();
+        return result;
+    }
+
+    @Test
+    public void compactAndTruncate() {
+        assertEquals("{\"response\":{\"status\":200,\"body\":[{\"a\":[1,2]}]}}",
+                write("[ {\"a\": [1, 2]}, {\"b\": 2}, 3 ]", true));
+        assertEquals("{\"response\":{\"status\":200,\"body\":[{\"a\":[1,2]},{\"b\":2},3]}}",
+                write("[ {\"a\": [1, 2]}, {\"b\": 2}, 3 ]", false));
+        assertEquals("{\"response\":{\"status\":200,\"body\":{\"rows\":[{\"id\":1}],\"total\":2,\"x\":{\"rows\":[1,2]}}}}",
+                write("{\"rows\": [{\"id\": 1}, {\"id\": [2, 3]}], \"total\": 2, \"x\": {\"rows\": [1, 2]}}", true));
+    }
+
+    @Test
+    public void escapeNonJson() {
+        assertEquals("{\"response\":{\"status\":200,\"body\":\"a=1&b=\\\"中\\\"\\n\"}}", write("a=1&b=\"中\"\n", true));
+        assertEquals("{\"response\":{\"status\":200,\"body\":\"{\\\"a\\\":1\"}}", write("{\"a\":1", true));
+        assertEquals("{\"response\":{\"status\":200,\"body\":\"123\"}}", write("123", true));
+        assertEquals("{\"response\":{\"status\":200,\"body\":\"\"}}", write("", true));
+    }
+
+    @Test
+    public void sections() {
+        RequestLogWriter writer = RequestLogWriter.obtain(null);
+        writer.beginObject().name("proxy").beginObject().name("url").value("http://a/\"b\"").endObject().endObject();
+        writer.separator("\n--\n");
+        writer.beginObject().name("record").beginObject().name("tags").beginArray().value("x").value("y").endArray()
+                .endObject().endObject();
+        assertEquals("{\"proxy\":{\"url\":\"http://a/\\\"b\\\"\"}}\n--\n{\"record\":{\"tags\":[\"x\",\"y\"]}}",
+                writer.toString());
+        writer.recycle();
+    }
+
+    @Test
+    public void maskJson() {
+        assertEquals("{\"response\":{\"status\":200,\"body\":{\"user\":{\"name\":\"a\",\"Password\":\"***\"},"
+                        + "\"accessToken\":\"***\",\"apiKey\":\"***\",\"rows\":[{\"pk\":1}]}}}",
+                write("{\"user\": {\"name\": \"a\", \"Password\": \"x\"}, \"accessToken\": {\"v\": [1, 2]}, "
+                        + "\"apiKey\": 12, \"rows\": [{\"pk\": 1}, {\"pk\": 2}]}", true, MASKER));
+    }
+
+    @Test
+    public void maskText() {
+        assertEquals("{\"response\":{\"status\":200,\"body\":\"name=a&password=***&my_token: \\\"***\\\"\"}}",
+                write("name=a&password=p@ss&my_token: \"abc\"", true, MASKER));
+        RequestLogWriter writer = RequestLogWriter.obtain(MASKER);
+        writer.beginObject().name("url").text("http://a/b?TOKEN=1&c=2").endObject();
+        assertEquals("{\"url\":\"http://a/b?TOKEN=***&c=2\"}", writer.toString());
+        assertTrue(writer.isSensitive("X-Auth-Token"));
+        assertFalse(writer.isSensitive("Content-Type"));
+        writer.recycle();
+    }
+}
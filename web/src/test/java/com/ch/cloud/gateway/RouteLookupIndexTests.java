@@ -0,0 +1,81 @@
+package com.ch.cloud.gateway;
+
+import com.ch.cloud.gateway.utils.RouteLookupIndex;
+import org.junit.Test;
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouteLookupIndexTests {
+
+    private static final String[] PATTERNS = {"/auth/**", "/upms/**", "/upms/user/{id}", "/wiki/*/page",
+            "/**/v2/api-docs", "/a/b", "/a/b/c/**", "/{svc}/x"};
+
+    private static final String[] PATHS = {"/auth/login", "/upms", "/upms/user/1", "/wiki/a/page",
+            "/wiki/v2/api-docs", "/a/b", "/a/b/", "/a/b/c", "/a//b/c/d", "/z/x", "/none", "/", ""};
+
+    @Test
+    public void candidatesContainMatchedRoutes() {
+        List<Route> routes = new ArrayList<>();
+        Map<String, RouteDefinition> definitions = new HashMap<>();
+        for (int i = 0; i < PATTERNS.length; i++) {
+            routes.add(route("r" + i));
+            definitions.put("r" + i, definition("r" + i, "Path=" + PATTERNS[i]));
+        }
+        RouteLookupIndex index = RouteLookupIndex.build(routes, definitions);
+        for (String path : PATHS) {
+            List<String> candidates = ids(index.candidates(path, null));
+            for (int i = 0; i < PATTERNS.length; i++) {
+                if (PathPatternParser.defaultInstance.parse(PATTERNS[i]).matches(PathContainer.parsePath(path))) {
+                    assertTrue(PATTERNS[i] + " -> " + path, candidates.contains("r" + i));
+                }
+            }
+        }
+        assertEquals(ids(routes), ids(index.candidates("/a%2Fb", null)));
+        assertEquals("[r1, r4, r7]", ids(index.candidates("/upms/x", null)).toString());
+    }
+
+    @Test
+    public void hostAndUnindexed() {
+        List<Route> routes = new ArrayList<>();
+        Map<String, RouteDefinition> definitions = new HashMap<>();
+        routes.add(route("path"));
+        definitions.put("path", definition("path", "Path=/upms/**"));
+        routes.add(route("host"));
+        definitions.put("host", definition("host", "Host=api.example.com"));
+        routes.add(route("wildcardHost"));
+        definitions.put("wildcardHost", definition("wildcardHost", "Host=**.example.com"));
+        routes.add(route("noDefinition"));
+        RouteLookupIndex index = RouteLookupIndex.build(routes, definitions);
+        assertEquals("[wildcardHost, noDefinition]", ids(index.candidates("/auth/x", "a.example.com")).toString());
+        assertEquals("[path, host, wildcardHost, noDefinition]",
+                ids(index.candidates("/upms/x", "api.example.com")).toString());
+    }
+
+    private static Route route(String id) {
+        return Route.async().id(id).uri("http://localhost").asyncPredicate(exchange -> Mono.just(true)).build();
+    }
+
+    private static RouteDefinition definition(String id, String predicate) {
+        RouteDefinition definition = new RouteDefinition();
+        definition.setId(id);
+        definition.getPredicates().add(new PredicateDefinition(predicate));
+        return definition;
+    }
+
+    private static List<String> ids(List<Route> routes) {
+        return routes.stream().map(Route::getId).collect(Collectors.toList());
+    }
+}